@@ -1,17 +1,35 @@
 import util.CustomChartUtils;
-import util.DataPreprocessor;
-import util.TechnicalIndicators;
+import util.FeatureEngine;
+import util.FeaturePipeline;
+import util.FeatureSpill;
+import util.Normalizer;
+import util.PrefetchPipeline;
+import util.SequenceDataset;
+import util.StockSeries;
+import lstm.FloatLSTMNetwork;
 import lstm.LSTMNetwork;
+import lstm.LSTMPredictor;
 import lstm.LSTMTrainer;
+import lstm.LSTMWorkspace;
+import lstm.MappedLSTMModel;
+import lstm.NormalizedPredictor;
+import lstm.PrecisionReport;
 import database.DatabaseHelper;
+import prediction.BatchPredictionJob;
+import prediction.PredictionService;
+import prediction.SymbolStateStore;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -19,7 +37,10 @@ import java.util.logging.Logger;
 public class Main {
     static String version = "v3";
 
-    private static final String MODEL_FILE_PATH = "lstm_model"+version+".ser".replace("/", File.separator);
+    private static final String MODEL_FILE_PATH = "lstm_model"+version+".bin".replace("/", File.separator);
+    private static final String FLOAT_MODEL_FILE_PATH = "lstm_model"+version+"_f32.bin".replace("/", File.separator);
+    // Java-serialized model from before the binary format; converted to MODEL_FILE_PATH on first start
+    private static final String LEGACY_MODEL_FILE_PATH = "lstm_model"+version+".ser".replace("/", File.separator);
     private static final Logger LOGGER = Logger.getLogger(Main.class.getName());
     private static final String RESET = "\u001B[0m";
     private static final String GREEN = "\u001B[32m";
@@ -27,10 +48,55 @@ public class Main {
     private static final String YELLOW = "\u001B[33m";
 
     static int hiddenSize = 100;
-    static int inputSize = 8;
+    // Input features; every row also ends with FeatureEngine's fixed target. Saved next to the model, and
+    // --batch, --serve and the prompt build their rows from the saved spec, whatever this says.
+    static String featureSpec = FeatureEngine.MODEL_SPEC;
+    static int featureThreads = Runtime.getRuntime().availableProcessors();
+    // Load symbols and compute their features on background threads while the first epoch trains on them.
+    // Off by default because it changes the results: each symbol is split into training and test rows on its own
+    // rather than the table list as a whole, and the first epoch trains in table order instead of shuffled.
+    static boolean prefetchTraining = false;
+    static int prefetchLoaderThreads = 2;
+    // Symbols loaded or computed ahead of training; 2 or more keeps the next one ready
+    static int prefetchWindow = 4;
+    // Spill the feature rows to chunk files on local disk as they load and stream them back every epoch, so the
+    // dataset does not have to fit in the heap. Loads through the prefetch pipeline whatever prefetchTraining says.
+    static boolean outOfCore = false;
+    static String spillDirectory = "feature_spill";
+    static int spillChunkRows = 65536;
+    // Train on rows scaled to zero mean and unit variance, saving the statistics next to the model
+    static boolean normalizeFeatures = false;
     static int outputSize = 1;
     static int epoch = 15;
+    static int batchSize = 32;
+    // batchSize is the global batch and is split across the threads, so the thread count changes speed, not
+    // the updates (SYNCHRONOUS sums in worker order; only floating-point rounding differs between machines)
+    static int trainingThreads = Runtime.getRuntime().availableProcessors();
+    // Before in-memory training, time one epoch on 1, 2, 4 ... trainingThreads threads and print the speedup
+    static boolean reportTrainingScaling = false;
+    static LSTMTrainer.Strategy trainingStrategy = LSTMTrainer.Strategy.SYNCHRONOUS;
+    // Above 1, train on windows of this many rows with truncated backpropagation through time (one thread)
+    static int bpttSteps = 1;
+    // Keep activations every this many steps and recompute the rest during backpropagation; 0 keeps all
+    static int bpttCheckpointInterval = 0;
     static double training = 0.001;
+    private static final double LEARNING_RATE_DECAY = 0.9;
+    private static final double TRAIN_RATIO = 0.6;
+    static boolean singlePrecision = false;
+    static int batchPredictionDays = 30;
+    static int batchDbConcurrency = 8;
+    static int stateCacheCapacity = 4096;
+    static int servicePort = 8080;
+    static int serviceHandlerThreads = 256;
+    static int serviceBatcherThreads = Runtime.getRuntime().availableProcessors();
+    static int serviceMaxBatch = 64;
+    static long serviceMaxWaitMicros = 500;
+    static int serviceQueueCapacity = 1024;
+    static int serviceMaxDays = 365;
+    static long serviceTimeoutMillis = 2000;
+    // Symbols whose feature rows the service keeps, and how long before they are reloaded to pick up new bars
+    static int serviceMaxSymbols = 1024;
+    static long serviceFeatureTtlMillis = 5 * 60 * 1000;
 
 
     private static final List<Integer> epochList = new ArrayList<>();
@@ -42,36 +108,114 @@ public class Main {
         handler.setLevel(Level.INFO);
         LOGGER.addHandler(handler);
 
+        convertLegacyModel();
+
         DatabaseHelper dbHelper = new DatabaseHelper();
 
+        // --batch [days]: forecast every symbol with the saved model and exit, without training or prompts
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatchPrediction(dbHelper, args.length > 1 ? Integer.parseInt(args[1]) : batchPredictionDays);
+            return;
+        }
+
+        // --serve [port]: answer predictions over HTTP with the saved model until the process is killed
+        if (args.length > 0 && args[0].equals("--serve")) {
+            startPredictionService(dbHelper, args.length > 1 ? Integer.parseInt(args[1]) : servicePort);
+            return;
+        }
+
         LSTMNetwork lstm = LSTMNetwork.loadModel(MODEL_FILE_PATH);
         if (lstm == null) {
-            lstm = new LSTMNetwork(inputSize, hiddenSize,outputSize);
+            lstm = new LSTMNetwork(inputSize(), hiddenSize,outputSize);
+        } else {
+            String trainedSpec = FeatureEngine.forModel(MODEL_FILE_PATH).getSpec();
+            if (!trainedSpec.equals(features().getSpec()) || lstm.getInputSize() != inputSize()) {
+                throw new IllegalStateException(MODEL_FILE_PATH + " was trained on feature spec \"" + trainedSpec + "\" ("
+                        + lstm.getInputSize() + " inputs), not \"" + featureSpec + "\"");
+            }
         }
 
-        List<String> tableNames = dbHelper.getAllStockTableNames();
-        List<double[]> allStockData = new ArrayList<>();
+        Normalizer normalizer = outOfCore ? trainOutOfCore(dbHelper, lstm) : trainInMemory(dbHelper, lstm);
 
-        for (String tableName : tableNames) {
-            allStockData.addAll(dbHelper.loadStockData(tableName));
+        lstm.saveModel(MODEL_FILE_PATH);
+        features().save(FeatureEngine.pathFor(MODEL_FILE_PATH));
+        if (normalizer != null) {
+            normalizer.save(Normalizer.pathFor(MODEL_FILE_PATH));
+        } else {
+            // Statistics from an earlier normalized run no longer describe this model
+            Files.deleteIfExists(Paths.get(Normalizer.pathFor(MODEL_FILE_PATH)));
         }
 
-        double[][] stockDataArray = allStockData.toArray(new double[0][]);
+        String accuracyChartDir = "charts"+version + File.separator + "accuracy";
+        String predictionChartDir = "charts"+version + File.separator + "predictions";
+        createDirectory(accuracyChartDir);
+        createDirectory(predictionChartDir);
+
+        CustomChartUtils.saveAccuracyChart("Model Accuracy", epochList, accuracyList, accuracyChartDir + File.separator + "model_accuracy.png", "Epochs", "Accuracy");
+
+        // Predictions run on an immutable snapshot, each with its own state, so the trained network is never mutated
+        LSTMPredictor model = withNormalizer(lstm.snapshot());
+        FeatureEngine modelFeatures = FeatureEngine.forModel(MODEL_FILE_PATH);
 
-        // Calculate technical indicators
-        double[][] technicalIndicators = TechnicalIndicators.calculate(stockDataArray, 20, 20);
+        try (Scanner scanner = new Scanner(System.in)) {
+            while (true) {
+                System.out.print("Enter the stock symbol to predict: ");
+                String stock = scanner.nextLine();
+                String stockSymbol = "daily_data_"+stock;
+                System.out.print("Enter the number of days for prediction: ");
+                int days = scanner.nextInt();
+                scanner.nextLine();
+
+                predictAndSave(dbHelper, model, modelFeatures, stockSymbol, days, predictionChartDir);
+
+                System.out.print(BLUE + "Do you want to predict for another stock? (yes/no): " + RESET);
+                String response = scanner.nextLine();
+                if (!response.equalsIgnoreCase("yes")) {
+                    break;
+                }
+            }
+        }
+    }
 
-        // Combine stock data with technical indicators
-        double[][] extendedData = DataPreprocessor.addFeatures(stockDataArray, technicalIndicators);
+    // Trains on the whole dataset held on the heap; returns the statistics the rows were scaled with, if any
+    private static Normalizer trainInMemory(DatabaseHelper dbHelper, LSTMNetwork lstm) throws SQLException, IOException {
+        // Rows hold the input features followed by the target; the splits are views over extendedData
+        SequenceDataset[] splits;
+        int firstEpoch = 0;
+        if (prefetchTraining) {
+            // Normalized training needs the statistics of every training row before its first step
+            boolean trainWhileLoading = !normalizeFeatures;
+            splits = prefetchAndTrain(dbHelper, lstm, trainWhileLoading);
+            if (trainWhileLoading) {
+                firstEpoch = 1;
+            }
+        } else {
+            splits = loadAll(dbHelper);
+        }
+        double[][] extendedData = splits[0].getRows();
+        SequenceDataset trainData = splits[0];
+        SequenceDataset testData = splits[1];
+
+        // Statistics come from the training rows only, so the test rows are scaled as unseen data would be
+        Normalizer normalizer = null;
+        if (normalizeFeatures) {
+            long normalizeStart = System.nanoTime();
+            normalizer = Normalizer.fit(extendedData, 0, trainData.size());
+            normalizer.normalizeInPlace(extendedData);
+            LOGGER.log(Level.INFO, BLUE + "Normalized " + extendedData.length + " rows in " + (System.nanoTime() - normalizeStart) / 1_000_000 + " ms" + RESET);
+        }
 
-        double[][][] preprocessedData = DataPreprocessor.preprocessData(extendedData, 0.6);
-        double[][] trainData = preprocessedData[0];
-        double[][] testData = preprocessedData[1];
+        LOGGER.log(Level.INFO, BLUE + "Training data size: " + trainData.size() + RESET);
+        LOGGER.log(Level.INFO, BLUE + "Test data size: " + testData.size() + RESET);
 
-        LOGGER.log(Level.INFO, BLUE + "Training data size: " + trainData.length + RESET);
-        LOGGER.log(Level.INFO, BLUE + "Test data size: " + testData.length + RESET);
+        if (reportTrainingScaling) {
+            // Trains copies of the network, so the model itself is untouched
+            try (LSTMTrainer probe = new LSTMTrainer(lstm, training, batchSize, 1, trainingStrategy)) {
+                probe.reportScaling(trainData, trainingThreads);
+            }
+        }
 
-        trainModel(lstm, trainData, epoch,training);
+        trainModel(lstm, trainData, firstEpoch, epoch, training * Math.pow(LEARNING_RATE_DECAY, firstEpoch));
 
         double accuracy = testModel(lstm, testData);
         int n = 10;
@@ -85,88 +229,291 @@ public class Main {
 //            n *= 10;
 //        }
 
-        lstm.saveModel(MODEL_FILE_PATH);
+        if (singlePrecision) {
+            saveSinglePrecision(lstm, testData);
+        }
+        return normalizer;
+    }
 
-        String accuracyChartDir = "charts"+version + File.separator + "accuracy";
-        String predictionChartDir = "charts"+version + File.separator + "predictions";
-        createDirectory(accuracyChartDir);
-        createDirectory(predictionChartDir);
+    // Loads every table, then computes the features of all of them, and splits the rows as a whole
+    private static SequenceDataset[] loadAll(DatabaseHelper dbHelper) throws SQLException {
+        List<String> tableNames = dbHelper.getAllStockTableNames();
+        List<StockSeries> tables = new ArrayList<>(tableNames.size());
 
-        CustomChartUtils.saveAccuracyChart("Model Accuracy", epochList, accuracyList, accuracyChartDir + File.separator + "model_accuracy.png", "Epochs", "Accuracy");
+        long loadStart = System.nanoTime();
+        for (String tableName : tableNames) {
+            tables.add(dbHelper.loadStockSeries(tableName));
+        }
+        LOGGER.log(Level.INFO, BLUE + "Loaded " + tableNames.size() + " tables in " + (System.nanoTime() - loadStart) / 1_000_000 + " ms. " + dbHelper.getCacheStats() + RESET);
+
+        // Technical indicators appended to the price columns, computed per symbol in parallel
+        long featureStart = System.nanoTime();
+        ForkJoinPool featurePool = new ForkJoinPool(featureThreads);
+        double[][] extendedData;
+        try {
+            extendedData = FeaturePipeline.build(tables, features(), featurePool);
+        } finally {
+            featurePool.shutdown();
+        }
+        LOGGER.log(Level.INFO, BLUE + "Built " + extendedData.length + " feature rows in " + (System.nanoTime() - featureStart) / 1_000_000 + " ms" + RESET);
 
-        try (Scanner scanner = new Scanner(System.in)) {
-            while (true) {
-                System.out.print("Enter the stock symbol to predict: ");
-                String stock = scanner.nextLine();
-                String stockSymbol = "daily_data_"+stock;
-                System.out.print("Enter the number of days for prediction: ");
-                int days = scanner.nextInt();
-                scanner.nextLine();
+        return SequenceDataset.of(extendedData, FeaturePipeline.starts(tables), inputSize(), targetColumn()).split(TRAIN_RATIO);
+    }
 
-                predictAndSave(dbHelper, lstm, stockSymbol, days, predictionChartDir);
+    // Receives each symbol's feature rows from prefetch() with the index its test rows start at
+    private interface ChunkSink {
+        void accept(double[][] rows, int cut) throws IOException;
+    }
 
-                System.out.print(BLUE + "Do you want to predict for another stock? (yes/no): " + RESET);
-                String response = scanner.nextLine();
-                if (!response.equalsIgnoreCase("yes")) {
-                    break;
+    // Streams the tables through a PrefetchPipeline and splits every symbol at TRAIN_RATIO as it arrives. With
+    // trainWhileLoading its training rows are trained on right away as epoch 0, while the next symbols load.
+    private static void prefetch(DatabaseHelper dbHelper, LSTMNetwork lstm, boolean trainWhileLoading, ChunkSink sink) throws SQLException, IOException {
+        List<String> tableNames = dbHelper.getAllStockTableNames();
+        long totalRows = 0;
+
+        long start = System.nanoTime();
+        try (LSTMTrainer trainer = new LSTMTrainer(lstm, training, batchSize, trainingThreads, trainingStrategy);
+             PrefetchPipeline pipeline = new PrefetchPipeline(tableNames, dbHelper::loadStockSeries, prefetchLoaderThreads,
+                features(), featureThreads, prefetchWindow)) {
+            PrefetchPipeline.Chunk chunk;
+            while ((chunk = pipeline.take()) != null) {
+                double[][] rows = chunk.getRows();
+                int cut = (int) (rows.length * TRAIN_RATIO);
+                sink.accept(rows, cut);
+                totalRows += rows.length;
+                if (trainWhileLoading && cut > 0) {
+                    SequenceDataset windows = SequenceDataset.of(rows, inputSize(), targetColumn()).range(0, cut).withLookback(bpttSteps);
+                    trainEpoch(trainer, windows, windows.order());
+                }
+            }
+            LOGGER.log(Level.INFO, BLUE + pipeline.report() + RESET);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading training data", e);
+        }
+        LOGGER.log(Level.INFO, BLUE + "Loaded " + tableNames.size() + " tables into " + totalRows + " feature rows"
+                + (trainWhileLoading ? " and trained epoch 0" : "") + " in " + (System.nanoTime() - start) / 1_000_000 + " ms. " + dbHelper.getCacheStats() + RESET);
+    }
+
+    // prefetch() into memory. Returns {train, test} views over one array holding every training row, then
+    // every test row.
+    private static SequenceDataset[] prefetchAndTrain(DatabaseHelper dbHelper, LSTMNetwork lstm, boolean trainWhileLoading) throws SQLException, IOException {
+        List<double[][]> chunks = new ArrayList<>();
+        List<Integer> cuts = new ArrayList<>();
+        prefetch(dbHelper, lstm, trainWhileLoading, (rows, cut) -> {
+            chunks.add(rows);
+            cuts.add(cut);
+        });
+        int trainRows = 0;
+        int totalRows = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            trainRows += cuts.get(i);
+            totalRows += chunks.get(i).length;
+        }
+
+        // Only row references move; the rows themselves are the ones the pipeline computed. Every symbol
+        // starts twice, once among the training rows and once among the test rows.
+        double[][] extendedData = new double[totalRows][];
+        int[] starts = new int[2 * chunks.size()];
+        int train = 0;
+        int test = trainRows;
+        for (int i = 0; i < chunks.size(); i++) {
+            double[][] rows = chunks.get(i);
+            int cut = cuts.get(i);
+            starts[i] = train;
+            starts[chunks.size() + i] = test;
+            System.arraycopy(rows, 0, extendedData, train, cut);
+            System.arraycopy(rows, cut, extendedData, test, rows.length - cut);
+            train += cut;
+            test += rows.length - cut;
+        }
+        chunks.clear();
+
+        SequenceDataset all = SequenceDataset.of(extendedData, starts, inputSize(), targetColumn());
+        return new SequenceDataset[]{all.range(0, trainRows), all.range(trainRows, totalRows)};
+    }
+
+    // Spills every symbol's training and test rows to disk as they load, then streams the training chunks back
+    // for every later epoch, in a new random chunk order each time. The heap holds the prefetch window and one
+    // chunk buffer however large the dataset is. Returns the statistics the rows were scaled with, if any.
+    private static Normalizer trainOutOfCore(DatabaseHelper dbHelper, LSTMNetwork lstm) throws SQLException, IOException {
+        // Statistics are gathered while spilling, but training on scaled rows has to wait for all of them
+        boolean trainWhileLoading = !normalizeFeatures;
+        Normalizer normalizer = normalizeFeatures ? new Normalizer(inputSize() + 1) : null;
+        try (FeatureSpill train = new FeatureSpill(spillDirectory, "train", inputSize() + 1, spillChunkRows);
+             FeatureSpill test = new FeatureSpill(spillDirectory, "test", inputSize() + 1, spillChunkRows)) {
+            prefetch(dbHelper, lstm, trainWhileLoading, (rows, cut) -> {
+                train.startSymbol();
+                train.append(rows, 0, cut);
+                test.startSymbol();
+                test.append(rows, cut, rows.length);
+                if (normalizer != null) {
+                    for (int i = 0; i < cut; i++) {
+                        normalizer.add(rows[i]);
+                    }
                 }
+            });
+            train.finish();
+            test.finish();
+            LOGGER.log(Level.INFO, BLUE + "Spilled " + train.getRows() + " training rows in " + train.getChunkCount() + " chunks and "
+                    + test.getRows() + " test rows in " + test.getChunkCount() + " chunks to " + spillDirectory + RESET);
+
+            double[][] buffer = train.newBuffer();
+            int[] order = train.chunkOrder();
+            Random random = new Random();
+            int firstEpoch = trainWhileLoading ? 1 : 0;
+            int epochs = epoch;
+            double learningRate = training * Math.pow(LEARNING_RATE_DECAY, firstEpoch);
+            try (LSTMTrainer trainer = new LSTMTrainer(lstm, learningRate, batchSize, trainingThreads, trainingStrategy)) {
+                for (int epoch = firstEpoch; epoch < epochs; epoch++) {
+                    long epochStart = System.nanoTime();
+                    SequenceDataset.shuffle(order, random);
+                    for (int chunk : order) {
+                        SequenceDataset windows = readChunk(train, chunk, buffer, normalizer).withLookback(bpttSteps);
+                        trainEpoch(trainer, windows, windows.order());
+                    }
+                    trainer.setLearningRate(trainer.getLearningRate() * LEARNING_RATE_DECAY);
+
+                    double accuracy = testModel(lstm, train, buffer, normalizer);
+                    epochList.add(epoch);
+                    accuracyList.add(accuracy);
+                    LOGGER.log(Level.INFO, YELLOW + "Epoch " + epoch + ": Accuracy = " + accuracy + " ("
+                            + (System.nanoTime() - epochStart) / 1_000_000 + " ms)" + RESET);
+                }
+            }
+
+            LOGGER.log(Level.INFO, YELLOW + "Test accuracy = " + testModel(lstm, test, buffer, normalizer) + RESET);
+            if (singlePrecision && test.getChunkCount() > 0) {
+                saveSinglePrecision(lstm, readChunk(test, 0, buffer, normalizer));
             }
         }
+        return normalizer;
+    }
+
+    // Chunk c of the spill read into buffer, scaled if there is a normalizer, as a view of the rows it filled
+    private static SequenceDataset readChunk(FeatureSpill spill, int chunk, double[][] buffer, Normalizer normalizer) throws IOException {
+        int rows = spill.read(chunk, buffer);
+        if (normalizer != null) {
+            normalizer.normalizeInPlace(buffer, 0, rows);
+        }
+        return SequenceDataset.of(buffer, spill.getSymbolStarts(chunk), inputSize(), targetColumn()).range(0, rows);
     }
 
-    private static void trainModel(LSTMNetwork lstm, double[][] trainData, int epochs, double learningRate) {
-        LSTMTrainer trainer = new LSTMTrainer(lstm, learningRate);
+    // Logs how far a single-precision copy of the model drifts on the sample's rows, then saves it
+    private static void saveSinglePrecision(LSTMNetwork lstm, SequenceDataset sample) throws IOException {
+        FloatLSTMNetwork floatLstm = lstm.toSinglePrecision();
+        double[][] testInputs = new double[sample.size()][];
+        for (int i = 0; i < testInputs.length; i++) {
+            testInputs[i] = Arrays.copyOf(sample.lastRow(i), inputSize());
+        }
+        PrecisionReport report = PrecisionReport.compare(lstm, floatLstm, testInputs);
+        LOGGER.log(Level.INFO, BLUE + report + RESET);
+        floatLstm.saveModel(FLOAT_MODEL_FILE_PATH);
+    }
+
+    private static void trainEpoch(LSTMTrainer trainer, SequenceDataset windows, int[] order) {
+        if (bpttSteps > 1) {
+            trainer.trainSequenceEpoch(windows, order, bpttCheckpointInterval);
+        } else {
+            trainer.trainEpoch(windows, order);
+        }
+    }
+
+    private static void trainModel(LSTMNetwork lstm, SequenceDataset trainData, int firstEpoch, int epochs, double learningRate) {
         double prevAccuracy = 0;
         int sameCount = 0;
-        double decayRate = 0.9;
         double clipThreshold = 1.0;
 
-        for (int epoch = 0; epoch < epochs; epoch++) {
-            for (double[] data : trainData) {
-                double[] input = Arrays.copyOfRange(data, 0, data.length - 1);
-                double[] target = new double[]{data[data.length - 1]};
-                lstm.backpropagate(input, target, learningRate);
-            }
+        SequenceDataset windows = trainData.withLookback(bpttSteps);
+        int[] order = windows.order();
 
-            learningRate *= decayRate;
+        // One trainer, and so one worker pool, for every epoch
+        LSTMTrainer trainer = new LSTMTrainer(lstm, learningRate, batchSize, trainingThreads, trainingStrategy);
+        try {
+            for (int epoch = firstEpoch; epoch < epochs; epoch++) {
+                trainEpoch(trainer, windows, order);
 
-            double accuracy = testModel(lstm, trainData);
-            epochList.add(epoch);
-            accuracyList.add(accuracy);
+                trainer.setLearningRate(trainer.getLearningRate() * LEARNING_RATE_DECAY);
 
-            LOGGER.log(Level.INFO, YELLOW + "Epoch " + epoch + ": Accuracy = " + accuracy + RESET);
+                double accuracy = testModel(lstm, trainData);
+                epochList.add(epoch);
+                accuracyList.add(accuracy);
 
-            // Check if accuracy is the same as previous epoch
-            if (Math.abs(accuracy - prevAccuracy) < 0.01) {
-                sameCount++;
-            } else {
-                sameCount = 0;
-            }
+                LOGGER.log(Level.INFO, YELLOW + "Epoch " + epoch + ": Accuracy = " + accuracy + RESET);
+
+                // Check if accuracy is the same as previous epoch
+                if (Math.abs(accuracy - prevAccuracy) < 0.01) {
+                    sameCount++;
+                } else {
+                    sameCount = 0;
+                }
+
+                // If accuracy is the same for 2 consecutive epochs, reinitialize the model
+                if (sameCount == 2) {
+                    lstm = new LSTMNetwork(inputSize(), 20, 1);
+                    trainer.close();
+                    trainer = new LSTMTrainer(lstm, trainer.getLearningRate(), batchSize, trainingThreads, trainingStrategy);
+                    sameCount = 0;
+                }
 
-            // If accuracy is the same for 2 consecutive epochs, reinitialize the model
-            if (sameCount == 2) {
-                lstm = new LSTMNetwork(8, 20, 1);
-                trainer = new LSTMTrainer(lstm, learningRate);
-                sameCount = 0;
+                prevAccuracy = accuracy;
             }
+        } finally {
+            trainer.close();
+        }
+    }
 
-            prevAccuracy = accuracy;
+    private static double testModel(LSTMNetwork lstm, SequenceDataset testData) {
+        return (double) countCorrect(lstm, testData) / testData.size();
+    }
+
+    // Accuracy over every chunk of a spill, read through buffer
+    private static double testModel(LSTMNetwork lstm, FeatureSpill spill, double[][] buffer, Normalizer normalizer) throws IOException {
+        long correctPredictions = 0;
+        for (int chunk = 0; chunk < spill.getChunkCount(); chunk++) {
+            correctPredictions += countCorrect(lstm, readChunk(spill, chunk, buffer, normalizer));
         }
+        return (double) correctPredictions / spill.getRows();
     }
 
-    private static double testModel(LSTMNetwork lstm, double[][] testData) {
+    // Predictions within 1% of the actual value
+    private static int countCorrect(LSTMNetwork lstm, SequenceDataset testData) {
         int correctPredictions = 0;
-        for (double[] point : testData) {
-            double[] input = new double[point.length - 1];
-            System.arraycopy(point, 0, input, 0, point.length - 1);
-            double[] output = lstm.forward(input, lstm.getHiddenState(), lstm.getCellState());
+        LSTMWorkspace workspace = lstm.newWorkspace();
+        double[] input = new double[testData.getFeatureCount()];
+        for (int i = 0; i < testData.size(); i++) {
+            System.arraycopy(testData.lastRow(i), testData.getFeatureOffset(), input, 0, input.length);
+            double[] output = lstm.forward(input, lstm.getHiddenState(), lstm.getCellState(), workspace);
             double prediction = output[0];
-            double actual = point[point.length - 1];
+            double actual = testData.target(i);
             if (Math.abs(prediction - actual) < 0.01 * actual) {
                 correctPredictions++;
             }
         }
-        return (double) correctPredictions / testData.length;
+        return correctPredictions;
+    }
+
+    // Writes the legacy .ser model out in the binary format once, so training, --batch and --serve all find it
+    private static void convertLegacyModel() throws IOException {
+        if (new File(MODEL_FILE_PATH).exists() || !new File(LEGACY_MODEL_FILE_PATH).exists()) {
+            return;
+        }
+        LSTMNetwork.loadLegacyModel(LEGACY_MODEL_FILE_PATH).saveModel(MODEL_FILE_PATH);
+        LOGGER.log(Level.INFO, GREEN + "Converted " + LEGACY_MODEL_FILE_PATH + " to " + MODEL_FILE_PATH + RESET);
+    }
+
+    static FeatureEngine features() {
+        return FeatureEngine.parse(featureSpec);
+    }
+
+    // Model inputs per row: date, 6 price columns and featureSpec
+    static int inputSize() {
+        return features().inputSize();
+    }
+
+    // Row column of the fixed target, after the inputs
+    static int targetColumn() {
+        return features().targetColumn();
     }
 
     private static void createDirectory(String directory) {
@@ -176,23 +523,57 @@ public class Main {
         }
     }
 
-    private static void predictAndSave(DatabaseHelper dbHelper, LSTMNetwork lstm, String stockSymbol, int days, String predictionChartDir) throws SQLException, IOException {
-        List<double[]> stockData = dbHelper.loadStockData(stockSymbol);
-        double[][] stockDataArray = stockData.toArray(new double[0][]);
-        double[][] technicalIndicators = TechnicalIndicators.calculate(stockDataArray, 20, 20);
-        double[][] extendedData = DataPreprocessor.addFeatures(stockDataArray, technicalIndicators);
+    private static void runBatchPrediction(DatabaseHelper dbHelper, int days) throws IOException {
+        if (!new File(MODEL_FILE_PATH).exists()) {
+            LOGGER.log(Level.SEVERE, "No trained model at " + MODEL_FILE_PATH + "; run training first");
+            return;
+        }
+        MappedLSTMModel mapped = MappedLSTMModel.open(MODEL_FILE_PATH);
+        mapped.verify();
+        LSTMPredictor model = withNormalizer(mapped);
+        FeatureEngine features = FeatureEngine.forModel(MODEL_FILE_PATH);
+
+        String predictionChartDir = "charts"+version + File.separator + "predictions";
+        createDirectory(predictionChartDir);
 
-        double[][] input = new double[days][extendedData[0].length];
-        for (int i = 0; i < days; i++) {
-            System.arraycopy(extendedData[i], 0, input[i], 0, extendedData[i].length);
+        SymbolStateStore stateStore = new SymbolStateStore(stateCacheCapacity, "state"+version);
+        BatchPredictionJob job = new BatchPredictionJob(dbHelper, model, features, days, predictionChartDir, batchDbConcurrency, stateStore);
+        try {
+            BatchPredictionJob.Report report = job.run();
+            for (BatchPredictionJob.SymbolTiming timing : report.getTimings()) {
+                LOGGER.log(Level.INFO, timing.toString());
+            }
+            LOGGER.log(Level.INFO, GREEN + report + RESET);
+            LOGGER.log(Level.INFO, dbHelper.getPoolStats());
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Batch prediction failed", e);
         }
+    }
+
+    // Scales inputs and outputs the way the model was trained when statistics were saved next to it
+    private static LSTMPredictor withNormalizer(LSTMPredictor model) throws IOException {
+        Normalizer normalizer = Normalizer.load(Normalizer.pathFor(MODEL_FILE_PATH));
+        return normalizer == null ? model : new NormalizedPredictor(model, normalizer, normalizer.getColumns() - 1);
+    }
 
-        double[] predictions = new double[days];
-        for (int i = 0; i < days; i++) {
-            double[] currentInput = Arrays.copyOfRange(input[i], 0, input[i].length - 1);
-            double[] output = lstm.forward(currentInput, lstm.getHiddenState(), lstm.getCellState());
-            predictions[i] = output[0];
+    private static void startPredictionService(DatabaseHelper dbHelper, int port) throws IOException {
+        LSTMNetwork lstm = LSTMNetwork.loadModel(MODEL_FILE_PATH);
+        if (lstm == null) {
+            LOGGER.log(Level.SEVERE, "No trained model at " + MODEL_FILE_PATH + "; run training first");
+            return;
         }
+        // Rows are scaled the way the model was trained when statistics were saved next to it
+        Normalizer normalizer = Normalizer.load(Normalizer.pathFor(MODEL_FILE_PATH));
+        FeatureEngine features = FeatureEngine.forModel(MODEL_FILE_PATH);
+        PredictionService service = new PredictionService(dbHelper, lstm.snapshot(), features, port, serviceHandlerThreads,
+                serviceBatcherThreads, serviceMaxBatch, serviceMaxWaitMicros, serviceQueueCapacity, serviceMaxDays, serviceTimeoutMillis,
+                serviceMaxSymbols, serviceFeatureTtlMillis, normalizer);
+        service.start();
+    }
+
+    private static void predictAndSave(DatabaseHelper dbHelper, LSTMPredictor model, FeatureEngine features, String stockSymbol, int days, String predictionChartDir) throws SQLException, IOException {
+        double[][] extendedData = features.features(dbHelper.loadStockSeries(stockSymbol));
+        double[] predictions = BatchPredictionJob.predict(model, extendedData, days);
 
         CustomChartUtils.savePredictionChart("Predictions for " + stockSymbol, predictions, predictionChartDir + File.separator + stockSymbol + "_predictions.png", "Days", "Price");
         LOGGER.log(Level.INFO, BLUE + "Predictions saved for " + stockSymbol + RESET);
@@ -0,0 +1,545 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Bounded pool of physical JDBC connections. getConnection() hands out a proxy whose close() returns the
+// connection to the pool, so callers keep their try-with-resources code unchanged. Connections idle longer than
+// idleTimeout or older than maxLifetime are closed; ones that sat idle are validated before reuse. Each physical
+// connection caches its prepared statements by SQL, and closing a cached statement only clears its parameters
+// and batch, restores its settings and closes its result sets. Statements a caller leaves open are closed when the connection goes back.
+public class ConnectionPool implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+    // Connections used more recently than this are handed out without an isValid round trip
+    private static final long VALIDATION_INTERVAL_MILLIS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final int statementCacheSize;
+
+    // One permit per connection that may be checked out; idle connections do not hold one
+    private final Semaphore permits;
+    // Most recently returned first, so a small working set stays warm and the rest can age out
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    private long acquired;
+    private long timeouts;
+    private long created;
+    private long retired;
+    private long statementHits;
+    private long statementMisses;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    public ConnectionPool(String url, String username, String password, int maxSize, long maxWaitMillis,
+                          long idleTimeoutMillis, long maxLifetimeMillis, int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1_000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                synchronized (this) {
+                    timeouts++;
+                }
+                throw new SQLTimeoutException("Timed out after " + maxWaitMillis + " ms waiting for one of " + maxSize + " connections");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        long waited = System.nanoTime() - start;
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url, username, password));
+                synchronized (this) {
+                    created++;
+                }
+            }
+            synchronized (this) {
+                acquired++;
+                totalWaitNanos += waited;
+                maxWaitNanos = Math.max(maxWaitNanos, waited);
+            }
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Pops idle connections until one is still usable; stale or broken ones are closed on the way
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (this) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (pooled.expired(now) || (now - pooled.lastUsed > VALIDATION_INTERVAL_MILLIS && !pooled.isValid())) {
+                retire(pooled);
+                continue;
+            }
+            return pooled;
+        }
+    }
+
+    private void release(PooledConnection pooled, boolean broken) {
+        try {
+            if (broken || closed || pooled.expired(System.currentTimeMillis())) {
+                retire(pooled);
+            } else {
+                pooled.lastUsed = System.currentTimeMillis();
+                synchronized (this) {
+                    idle.addFirst(pooled);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> stale = new ArrayList<>();
+        synchronized (this) {
+            Iterator<PooledConnection> it = idle.iterator();
+            while (it.hasNext()) {
+                PooledConnection pooled = it.next();
+                if (pooled.expired(now) || now - pooled.lastUsed > idleTimeoutMillis) {
+                    it.remove();
+                    stale.add(pooled);
+                }
+            }
+        }
+        // Closing talks to the server, so it happens outside the lock
+        for (PooledConnection pooled : stale) {
+            retire(pooled);
+        }
+    }
+
+    private void retire(PooledConnection pooled) {
+        synchronized (this) {
+            retired++;
+        }
+        pooled.closePhysical();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        List<PooledConnection> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pooled : remaining) {
+            retire(pooled);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Connection pool: %d/%d in use, %d idle, acquired %d, created %d, retired %d, timeouts %d, "
+                        + "wait avg %.2f ms max %.2f ms, statement cache hits %d misses %d",
+                maxSize - permits.availablePermits(), maxSize, idle.size(), acquired, created, retired, timeouts,
+                acquired == 0 ? 0 : totalWaitNanos / 1e6 / acquired, maxWaitNanos / 1e6, statementHits, statementMisses);
+    }
+
+    private synchronized void countStatement(boolean hit) {
+        if (hit) {
+            statementHits++;
+        } else {
+            statementMisses++;
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // A physical connection plus its statement cache. Only one caller holds it at a time.
+    private final class PooledConnection {
+        final Connection physical;
+        final long createdAt = System.currentTimeMillis();
+        long lastUsed = createdAt;
+        final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= statementCacheSize || eldest.getValue().inUse) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue().physical);
+                return true;
+            }
+        };
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        boolean expired(long now) {
+            return now - createdAt > maxLifetimeMillis;
+        }
+
+        boolean isValid() {
+            try {
+                return physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(this));
+        }
+
+        PreparedStatement prepare(String sql, Connection proxy, Lease lease) throws SQLException {
+            CachedStatement cached = statementCacheSize > 0 ? statements.get(sql) : null;
+            if (cached != null && !cached.inUse) {
+                countStatement(true);
+            } else {
+                countStatement(false);
+                PreparedStatement statement = physical.prepareStatement(sql);
+                if (cached != null || statementCacheSize == 0) {
+                    // Same SQL already open on this connection, or caching is off: a one-off statement
+                    return statement;
+                }
+                cached = new CachedStatement(statement, statement.getFetchSize(), statement.getMaxRows(),
+                        statement.getQueryTimeout());
+                statements.put(sql, cached);
+            }
+            cached.inUse = true;
+            return cached.lease(proxy, lease);
+        }
+
+        void closePhysical() {
+            for (CachedStatement cached : statements.values()) {
+                closeQuietly(cached.physical);
+            }
+            statements.clear();
+            closeQuietly(physical);
+        }
+
+        private void closeQuietly(AutoCloseable resource) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Error closing pooled resource", e);
+            }
+        }
+    }
+
+    private static final class CachedStatement {
+        final PreparedStatement physical;
+        // Settings the statement was prepared with; a caller may change them, the next one must not see that
+        final int fetchSize;
+        final int maxRows;
+        final int queryTimeout;
+        boolean inUse;
+        // Result sets handed out by the current lease; re-executing closes earlier ones, release() the rest
+        final List<ResultSet> results = new ArrayList<>(1);
+
+        CachedStatement(PreparedStatement physical, int fetchSize, int maxRows, int queryTimeout) {
+            this.physical = physical;
+            this.fetchSize = fetchSize;
+            this.maxRows = maxRows;
+            this.queryTimeout = queryTimeout;
+        }
+
+        // Makes the statement ready for the next caller as a freshly prepared one would be: no open results,
+        // parameters or queued batch, and the fetch size, row limit and timeout it was prepared with
+        void release() throws SQLException {
+            try {
+                for (ResultSet result : results) {
+                    result.close();
+                }
+                physical.clearParameters();
+                physical.clearBatch();
+                physical.setFetchSize(fetchSize);
+                physical.setMaxRows(maxRows);
+                physical.setQueryTimeout(queryTimeout);
+            } finally {
+                results.clear();
+                inUse = false;
+            }
+        }
+
+        PreparedStatement lease(Connection connection, Lease lease) {
+            return (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new StatementLease(this, connection, lease));
+        }
+    }
+
+    // The handle a caller sees; close() gives the physical connection back instead of closing it
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        // Statements this lease created outside the cache; the caller should close them, reset() makes sure
+        private final List<Statement> opened = new ArrayList<>();
+        private boolean released;
+        private boolean broken;
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        reset();
+                        release(pooled, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                default:
+                    break;
+            }
+            if (released) {
+                throw new SQLException("Connection is closed");
+            }
+            try {
+                if (name.equals("prepareStatement") && args.length == 1) {
+                    PreparedStatement statement = pooled.prepare((String) args[0], (Connection) proxy, this);
+                    if (StatementLease.isLease(statement)) {
+                        return statement;
+                    }
+                    track(statement);
+                    return Guard.wrap(statement, PreparedStatement.class, this, proxy);
+                }
+                Object result = ConnectionPool.invoke(pooled.physical, method, args);
+                if (result instanceof Statement) {
+                    track((Statement) result);
+                    return Guard.wrap(result, method.getReturnType(), this, proxy);
+                }
+                return result;
+            } catch (SQLException e) {
+                failed(e);
+                throw e;
+            }
+        }
+
+        // Connection-level failures (SQLState class 08) mean the socket is gone, whichever call ran into them
+        void failed(SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+                broken = true;
+            }
+        }
+
+        private void track(Statement statement) throws SQLException {
+            // A long lease that closes what it opens should not pile up closed statements
+            if (opened.size() >= 64) {
+                Iterator<Statement> it = opened.iterator();
+                while (it.hasNext()) {
+                    if (it.next().isClosed()) {
+                        it.remove();
+                    }
+                }
+            }
+            opened.add(statement);
+        }
+
+        // Leaves the connection as a fresh one would be for the next caller. Closing a connection closes its
+        // statements and their result sets, including any the caller left open, so do the same here.
+        private void reset() {
+            for (Statement statement : opened) {
+                pooled.closeQuietly(statement);
+            }
+            opened.clear();
+            for (CachedStatement cached : pooled.statements.values()) {
+                if (cached.inUse) {
+                    try {
+                        cached.release();
+                    } catch (SQLException e) {
+                        LOGGER.log(Level.FINE, "Error releasing a cached statement", e);
+                    }
+                }
+            }
+            try {
+                if (!pooled.physical.getAutoCommit()) {
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                broken = true;
+            }
+        }
+    }
+
+    // A caller's view of a cached statement; close() clears it for reuse instead of closing it
+    private static final class StatementLease implements InvocationHandler {
+        private final CachedStatement cached;
+        private final Connection connection;
+        private final Lease lease;
+        private boolean released;
+
+        StatementLease(CachedStatement cached, Connection connection, Lease lease) {
+            this.cached = cached;
+            this.connection = connection;
+            this.lease = lease;
+        }
+
+        static boolean isLease(Object statement) {
+            return Proxy.isProxyClass(statement.getClass()) && Proxy.getInvocationHandler(statement) instanceof StatementLease;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        cached.release();
+                    }
+                    return null;
+                case "isClosed":
+                    return released || cached.physical.isClosed();
+                case "getConnection":
+                    return connection;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (released) {
+                throw new SQLException("Statement is closed");
+            }
+            Object result;
+            try {
+                result = ConnectionPool.invoke(cached.physical, method, args);
+            } catch (SQLException e) {
+                lease.failed(e);
+                throw e;
+            }
+            if (method.getName().startsWith("execute")) {
+                // Executing again closes the statement's current result sets
+                cached.results.clear();
+            }
+            if (result instanceof ResultSet) {
+                cached.results.add((ResultSet) result);
+                return Guard.wrap(result, ResultSet.class, lease, proxy);
+            }
+            return result;
+        }
+    }
+
+    // A statement the cache does not hold, or a result set, as the caller sees it: every call goes through to
+    // the driver object, and a connection-level failure in any of them marks the lease's connection broken,
+    // so a dead socket is not handed to the next borrower. Result sets it returns are guarded the same way.
+    private static final class Guard implements InvocationHandler {
+        private final Object target;
+        private final Lease lease;
+        // What getConnection() or getStatement() answers: the proxy this one was obtained through
+        private final Object owner;
+
+        private Guard(Object target, Lease lease, Object owner) {
+            this.target = target;
+            this.lease = lease;
+            this.owner = owner;
+        }
+
+        static Object wrap(Object target, Class<?> type, Lease lease, Object owner) {
+            return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{type},
+                    new Guard(target, lease, owner));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getConnection":
+                case "getStatement":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            Object result;
+            try {
+                result = ConnectionPool.invoke(target, method, args);
+            } catch (SQLException e) {
+                lease.failed(e);
+                throw e;
+            }
+            return result instanceof ResultSet ? wrap(result, ResultSet.class, lease, proxy) : result;
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package database;
 
 import util.PropertyLoader;
+import util.StockSeries;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -15,17 +18,64 @@ public class DatabaseHelper {
     private final String url;
     private final String username;
     private final String password;
+    private final ConnectionPool pool;
+    private final int fetchSize;
+    // Null when db.cache.dir is not set
+    private final MarketDataCache cache;
+    private volatile boolean predictionsTableReady;
+
+    static final String INSERT_PREDICTION_SQL = "INSERT INTO predictions (stock_symbol, predict, point_change, price_change, prediction, actual, date, prediction_date) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
     public DatabaseHelper() {
         Properties properties = PropertyLoader.loadProperties("application.properties");
         this.url = properties.getProperty("db.url");
         this.username = properties.getProperty("db.username");
         this.password = properties.getProperty("db.password");
+        this.pool = new ConnectionPool(url, username, password,
+                Integer.parseInt(properties.getProperty("db.pool.maxSize", "10")),
+                Long.parseLong(properties.getProperty("db.pool.maxWaitMillis", "30000")),
+                Long.parseLong(properties.getProperty("db.pool.idleTimeoutMillis", "600000")),
+                Long.parseLong(properties.getProperty("db.pool.maxLifetimeMillis", "1800000")),
+                Integer.parseInt(properties.getProperty("db.pool.statementCacheSize", "64")));
+        // MySQL only honours a positive fetch size with useCursorFetch=true on the URL (the shipped db.url sets it);
+        // Integer.MIN_VALUE streams row by row without a server cursor
+        this.fetchSize = Integer.parseInt(properties.getProperty("db.fetchSize", "1000"));
+        if (fetchSize > 0 && url != null && url.startsWith("jdbc:mysql:") && !url.contains("useCursorFetch=true")) {
+            LOGGER.log(Level.WARNING, "db.fetchSize={0} has no effect without useCursorFetch=true in db.url; whole tables will be buffered", fetchSize);
+        }
+        this.cache = createCache(properties.getProperty("db.cache.dir"));
     }
 
+    private MarketDataCache createCache(String directory) {
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        try {
+            return new MarketDataCache(this, directory);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Market data cache disabled; cannot use " + directory, e);
+            return null;
+        }
+    }
+
+    // Pooled: closing the returned connection hands it back to the pool
     public Connection connect() throws SQLException {
 //        LOGGER.log(Level.INFO,"Connecting to the database...");
-        return DriverManager.getConnection(url, username, password);
+        return pool.getConnection();
+    }
+
+    // Connection counts, wait times and statement cache hits
+    public String getPoolStats() {
+        return pool.toString();
+    }
+
+    // Cold/warm loads and rows served from disk versus the database; empty when the cache is disabled
+    public String getCacheStats() {
+        return cache == null ? "" : cache.toString();
+    }
+
+    public void close() {
+        pool.close();
     }
 
     public List<String> getAllStockTableNames() throws SQLException {
@@ -49,33 +99,66 @@ public class DatabaseHelper {
 
     public List<double[]> loadStockData(String tableName) throws SQLException {
         List<double[]> stockData = new ArrayList<>();
-        String query = "SELECT date, close, high, low, open, volume, turnover FROM " + tableName + " ORDER BY date";
+        streamStockData(tableName, (date, close, high, low, open, volume, turnover) -> {
+            double dateAsDouble = LocalDate.ofEpochDay(date).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            stockData.add(new double[]{dateAsDouble, close, high, low, open, volume, turnover});
+        });
+//        LOGGER.log(Level.INFO, "Loaded {0} rows of stock data from table {1}", new Object[]{stockData.size(), tableName});
+        return stockData;
+    }
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(query);
-             ResultSet rs = pstmt.executeQuery()) {
-            while (rs.next()) {
-                java.sql.Date date = rs.getDate("date");
-                double close = rs.getDouble("close");
-                double high = rs.getDouble("high");
-                double low = rs.getDouble("low");
-                double open = rs.getDouble("open");
-                double volume = rs.getDouble("volume");
-                double turnover = rs.getDouble("turnover");
+    // The whole table as primitive columns, without per-row objects. With the market data cache enabled,
+    // only rows newer than the cached copy are read from the database.
+    public StockSeries loadStockSeries(String tableName) throws SQLException {
+        if (cache != null) {
+            try {
+                return cache.load(tableName);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Market data cache failed for " + tableName + "; reading it from the database", e);
+            }
+        }
+        StockColumns columns = new StockColumns();
+        streamStockData(tableName, columns);
+        return columns.toSeries();
+    }
 
-                double dateAsDouble = date.getTime();
+    // Hands each row to the handler as it is read, in date order, so callers that aggregate never hold the table
+    public void streamStockData(String tableName, StockRowHandler handler) throws SQLException {
+        String query = "SELECT date, close, high, low, open, volume, turnover FROM " + tableName + " ORDER BY date";
+        streamStockRows(tableName, query, null, handler);
+    }
+
+    // Only the rows dated after the given epoch day; a range scan when the table is indexed on date
+    public void streamStockDataSince(String tableName, int afterEpochDay, StockRowHandler handler) throws SQLException {
+        String query = "SELECT date, close, high, low, open, volume, turnover FROM " + tableName + " WHERE date > ? ORDER BY date";
+        streamStockRows(tableName, query, Date.valueOf(LocalDate.ofEpochDay(afterEpochDay)), handler);
+    }
 
-                stockData.add(new double[]{dateAsDouble, close, high, low, open, volume, turnover});
+    private void streamStockRows(String tableName, String query, Date after, StockRowHandler handler) throws SQLException {
+        try (Connection conn = connect();
+             PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setFetchSize(fetchSize);
+            if (after != null) {
+                pstmt.setDate(1, after);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int date = (int) rs.getDate(1).toLocalDate().toEpochDay();
+                    handler.onRow(date, rs.getDouble(2), rs.getDouble(3), rs.getDouble(4), rs.getDouble(5),
+                            rs.getDouble(6), rs.getDouble(7));
+                }
             }
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error loading stock data for table " + tableName, e);
             throw e;
         }
-//        LOGGER.log(Level.INFO, "Loaded {0} rows of stock data from table {1}", new Object[]{stockData.size(), tableName});
-        return stockData;
     }
 
-    private void createPredictionsTableIfNotExists() throws SQLException {
+    // Runs the DDL once per helper instead of before every insert
+    void createPredictionsTableIfNotExists() throws SQLException {
+        if (predictionsTableReady) {
+            return;
+        }
         String createTableSQL = "CREATE TABLE IF NOT EXISTS predictions (" +
                 "id INT AUTO_INCREMENT PRIMARY KEY, " +
                 "stock_symbol VARCHAR(10) NOT NULL, " +
@@ -91,6 +174,7 @@ public class DatabaseHelper {
         try (Connection conn = connect();
              Statement stmt = conn.createStatement()) {
             stmt.executeUpdate(createTableSQL);
+            predictionsTableReady = true;
             LOGGER.log(Level.INFO, "Ensured that predictions table exists");
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Error creating predictions table", e);
@@ -101,10 +185,8 @@ public class DatabaseHelper {
     public void savePrediction(String stockSymbol, String predict, String pointChangeStr, double priceChange, double prediction, double actual, LocalDate today, LocalDate predictionDate) throws SQLException {
         createPredictionsTableIfNotExists();
 
-        String query = "INSERT INTO predictions (stock_symbol, predict, point_change, price_change, prediction, actual, date, prediction_date) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-
         try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+             PreparedStatement pstmt = conn.prepareStatement(INSERT_PREDICTION_SQL)) {
             pstmt.setString(1, stockSymbol);
             pstmt.setString(2, predict);
             pstmt.setString(3, pointChangeStr);
@@ -1,165 +1,77 @@
 package database;
 
-import java.sql.*;
+import database.FundamentalsTable.Metric;
 
+import java.sql.SQLException;
+
+// Getters are served from one bulk-loaded table that is refreshed in the background, so values can be up to
+// the cache TTL old
 public class FundamentalAnalysis {
+    private static final long DEFAULT_TTL_MILLIS = 15 * 60 * 1000;
+
     private final DatabaseHelper dbHelper;
+    private final FundamentalsCache cache;
 
     public FundamentalAnalysis(DatabaseHelper dbHelper) {
+        this(dbHelper, DEFAULT_TTL_MILLIS);
+    }
+
+    public FundamentalAnalysis(DatabaseHelper dbHelper, long ttlMillis) {
         this.dbHelper = dbHelper;
+        this.cache = new FundamentalsCache(dbHelper, ttlMillis);
+    }
+
+    // Every symbol's fundamentals, for screening the whole market without a query per symbol
+    public FundamentalsTable getAll() throws SQLException {
+        return cache.get();
+    }
+
+    // All metrics of one symbol straight from the database, bypassing the cache
+    public FundamentalsTable loadProfile(String stockSymbol) throws SQLException {
+        return FundamentalsTable.loadSymbol(dbHelper, stockSymbol);
     }
 
     public double getEPS(String stockSymbol) throws SQLException {
-        String query = "SELECT eps FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("eps");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.EPS);
     }
 
     public double getPERatio(String stockSymbol) throws SQLException {
-        String query = "SELECT pe_ratio FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("pe_ratio");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.PE_RATIO);
     }
 
     public double getDividendYield(String stockSymbol) throws SQLException {
-        String query = "SELECT dividend_yield FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("dividend_yield");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.DIVIDEND_YIELD);
     }
 
     public double getRevenueGrowth(String stockSymbol) throws SQLException {
-        String query = "SELECT revenue_growth FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("revenue_growth");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.REVENUE_GROWTH);
     }
 
     public double getEarningsGrowth(String stockSymbol) throws SQLException {
-        String query = "SELECT earnings_growth FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("earnings_growth");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.EARNINGS_GROWTH);
     }
 
     public double getDebtToEquityRatio(String stockSymbol) throws SQLException {
-        String query = "SELECT debt_to_equity FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("debt_to_equity");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.DEBT_TO_EQUITY);
     }
 
     public double getPriceToBookRatio(String stockSymbol) throws SQLException {
-        String query = "SELECT price_to_book FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("price_to_book");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.PRICE_TO_BOOK);
     }
 
     public double getROE(String stockSymbol) throws SQLException {
-        String query = "SELECT roe FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("roe");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.ROE);
     }
 
     public double getFreeCashFlow(String stockSymbol) throws SQLException {
-        String query = "SELECT free_cash_flow FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("free_cash_flow");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.FREE_CASH_FLOW);
     }
 
     public double getProfitMargins(String stockSymbol) throws SQLException {
-        String query = "SELECT profit_margins FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("profit_margins");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.PROFIT_MARGINS);
     }
 
     public double getEnterpriseValue(String stockSymbol) throws SQLException {
-        String query = "SELECT enterprise_value FROM fundamental_data WHERE stock_symbol = ?";
-        try (Connection conn = dbHelper.connect();
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
-            pstmt.setString(1, stockSymbol);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("enterprise_value");
-                }
-            }
-        }
-        return 0.0;
+        return cache.get().get(stockSymbol, Metric.ENTERPRISE_VALUE);
     }
 }
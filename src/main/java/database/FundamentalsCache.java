@@ -0,0 +1,68 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Holds the whole fundamentals table for ttlMillis. The first call loads it synchronously; after that a stale
+// table keeps being served while one background thread reloads it, so readers never wait on the database.
+// If a refresh fails the old table stays in use and the next read tries again.
+public class FundamentalsCache {
+    private static final Logger LOGGER = Logger.getLogger(FundamentalsCache.class.getName());
+
+    private final DatabaseHelper dbHelper;
+    private final long ttlMillis;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "fundamentals-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile FundamentalsTable table;
+    private volatile long loadedAt;
+
+    public FundamentalsCache(DatabaseHelper dbHelper, long ttlMillis) {
+        this.dbHelper = dbHelper;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public FundamentalsTable get() throws SQLException {
+        FundamentalsTable current = table;
+        if (current == null) {
+            return loadNow();
+        }
+        if (System.currentTimeMillis() - loadedAt > ttlMillis && refreshing.compareAndSet(false, true)) {
+            refresher.execute(() -> {
+                try {
+                    reload();
+                } catch (SQLException e) {
+                    LOGGER.log(Level.WARNING, "Fundamentals refresh failed; serving the previous table", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        return current;
+    }
+
+    // Drops the cached table so the next read loads it again
+    public void invalidate() {
+        table = null;
+    }
+
+    private synchronized FundamentalsTable loadNow() throws SQLException {
+        FundamentalsTable current = table;
+        return current != null ? current : reload();
+    }
+
+    private FundamentalsTable reload() throws SQLException {
+        FundamentalsTable loaded = FundamentalsTable.loadAll(dbHelper);
+        loadedAt = System.currentTimeMillis();
+        table = loaded;
+        return loaded;
+    }
+}
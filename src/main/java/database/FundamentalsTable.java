@@ -0,0 +1,137 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// fundamental_data for many symbols at once, read in a single query. Values are kept column-major, one
+// double[] per metric, so screening a metric across the market is a scan of one array. Immutable once loaded.
+// Symbols are looked up ignoring case and surrounding spaces, as WHERE stock_symbol = ? matched them under
+// MySQL's default collation, so "aapl" and "AAPL " find AAPL. Two rows for one symbol are refused at load.
+public final class FundamentalsTable {
+    public enum Metric {
+        EPS("eps"),
+        PE_RATIO("pe_ratio"),
+        DIVIDEND_YIELD("dividend_yield"),
+        REVENUE_GROWTH("revenue_growth"),
+        EARNINGS_GROWTH("earnings_growth"),
+        DEBT_TO_EQUITY("debt_to_equity"),
+        PRICE_TO_BOOK("price_to_book"),
+        ROE("roe"),
+        FREE_CASH_FLOW("free_cash_flow"),
+        PROFIT_MARGINS("profit_margins"),
+        ENTERPRISE_VALUE("enterprise_value");
+
+        final String column;
+
+        Metric(String column) {
+            this.column = column;
+        }
+    }
+
+    private static final String SELECT;
+
+    static {
+        StringBuilder sql = new StringBuilder("SELECT stock_symbol");
+        for (Metric metric : Metric.values()) {
+            sql.append(", ").append(metric.column);
+        }
+        SELECT = sql.append(" FROM fundamental_data").toString();
+    }
+
+    private final String[] symbols;
+    private final Map<String, Integer> rows;
+    // [metric][row]
+    private final double[][] values;
+
+    private FundamentalsTable(String[] symbols, Map<String, Integer> rows, double[][] values) {
+        this.symbols = symbols;
+        this.rows = rows;
+        this.values = values;
+    }
+
+    // Every symbol in one round trip
+    public static FundamentalsTable loadAll(DatabaseHelper dbHelper) throws SQLException {
+        return load(dbHelper, null);
+    }
+
+    // All metrics of one symbol in one round trip
+    public static FundamentalsTable loadSymbol(DatabaseHelper dbHelper, String stockSymbol) throws SQLException {
+        return load(dbHelper, stockSymbol);
+    }
+
+    private static FundamentalsTable load(DatabaseHelper dbHelper, String stockSymbol) throws SQLException {
+        String query = stockSymbol == null ? SELECT : SELECT + " WHERE stock_symbol = ?";
+        Metric[] metrics = Metric.values();
+        String[] symbols = new String[64];
+        double[][] values = new double[metrics.length][64];
+        Map<String, Integer> rows = new HashMap<>();
+        int size = 0;
+
+        try (Connection conn = dbHelper.connect();
+             PreparedStatement pstmt = conn.prepareStatement(query)) {
+            if (stockSymbol != null) {
+                pstmt.setString(1, stockSymbol);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String symbol = rs.getString(1);
+                    // The per-metric queries returned whichever matching row came first; which one that is is
+                    // up to the server, so a duplicate is an error rather than a guess
+                    Integer duplicate = rows.get(key(symbol));
+                    if (duplicate != null) {
+                        throw new SQLException("fundamental_data has more than one row for " + symbol
+                                + " (also " + symbols[duplicate] + ")");
+                    }
+                    if (size == symbols.length) {
+                        symbols = Arrays.copyOf(symbols, size * 2);
+                        for (int m = 0; m < metrics.length; m++) {
+                            values[m] = Arrays.copyOf(values[m], size * 2);
+                        }
+                    }
+                    symbols[size] = symbol;
+                    for (int m = 0; m < metrics.length; m++) {
+                        values[m][size] = rs.getDouble(m + 2);
+                    }
+                    rows.put(key(symbol), size++);
+                }
+            }
+        }
+        for (int m = 0; m < metrics.length; m++) {
+            values[m] = Arrays.copyOf(values[m], size);
+        }
+        return new FundamentalsTable(Arrays.copyOf(symbols, size), rows, values);
+    }
+
+    public int size() {
+        return symbols.length;
+    }
+
+    public boolean contains(String stockSymbol) {
+        return rows.containsKey(key(stockSymbol));
+    }
+
+    // 0.0 for an unknown symbol or a NULL value, as the single-metric queries returned
+    public double get(String stockSymbol, Metric metric) {
+        Integer row = rows.get(key(stockSymbol));
+        return row == null ? 0.0 : values[metric.ordinal()][row];
+    }
+
+    public String getSymbol(int row) {
+        return symbols[row];
+    }
+
+    // One metric for every symbol, indexed like getSymbol; do not modify
+    public double[] column(Metric metric) {
+        return values[metric.ordinal()];
+    }
+
+    private static String key(String stockSymbol) {
+        return stockSymbol == null ? null : stockSymbol.trim().toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,233 @@
+package database;
+
+import util.StockSeries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Local copy of each daily_data_* table, one memory-mapped columnar file per symbol. load() reads the cached
+// bars from the mapping and asks MySQL only for rows dated after the file's watermark (its last bar), then
+// appends them in place. Rows changed in MySQL at or before the watermark are not seen; invalidate() drops a
+// symbol so its next load is a full read.
+//
+// Each symbol is mapped once and the mapping is reused by later loads. When a file outgrows its capacity the
+// new one is written and mapped beside it, swapped in for the old mapping, and only then moved over the old
+// file, so no mapping of a replaced file stays in use. Assumes one process per cache directory.
+//
+// File layout, little-endian: 32-byte header (magic, version, count, capacity, watermark epoch day),
+// then int date[capacity], then close, high, low, open, volume, turnover as double[capacity] each.
+public class MarketDataCache {
+    private static final int MAGIC = 0x3143444D;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int COLUMNS = StockSeries.Column.values().length;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final DatabaseHelper dbHelper;
+    private final Path directory;
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+
+    private long coldLoads;
+    private long warmLoads;
+    private long cachedRows;
+    private long fetchedRows;
+    private long coldNanos;
+    private long warmNanos;
+
+    public MarketDataCache(DatabaseHelper dbHelper, String directory) throws IOException {
+        this.dbHelper = dbHelper;
+        this.directory = Paths.get(directory);
+        Files.createDirectories(this.directory);
+    }
+
+    // The table's full history: cached bars plus whatever MySQL has after the watermark
+    public StockSeries load(String tableName) throws SQLException, IOException {
+        synchronized (locks.computeIfAbsent(tableName, k -> new Object())) {
+            long start = System.nanoTime();
+            Path file = directory.resolve(tableName + ".mdc");
+            ByteBuffer cached = mapping(tableName, file);
+            int count = cached == null ? 0 : cached.getInt(8);
+            int capacity = cached == null ? 0 : cached.getInt(12);
+
+            StockColumns fresh = new StockColumns(64);
+            if (count == 0) {
+                dbHelper.streamStockData(tableName, fresh);
+            } else {
+                dbHelper.streamStockDataSince(tableName, cached.getInt(16), fresh);
+            }
+            StockSeries added = fresh.toSeries();
+
+            int total = count + added.size();
+            int[] date = new int[total];
+            double[][] columns = new double[COLUMNS][total];
+            if (count > 0) {
+                read(cached, capacity, count, date, columns);
+            }
+            copy(added, count, date, columns);
+
+            if (added.size() > 0) {
+                if (cached != null && total <= capacity) {
+                    append(cached, capacity, count, added);
+                } else {
+                    rewrite(tableName, file, Math.max(INITIAL_CAPACITY, Math.max(total, capacity * 2)), total, date, columns);
+                }
+            }
+            record(count == 0, count, added.size(), System.nanoTime() - start);
+            return new StockSeries(date, columns[0], columns[1], columns[2], columns[3], columns[4], columns[5], total);
+        }
+    }
+
+    // Deletes a symbol's cached file, e.g. after its history was corrected in MySQL
+    public void invalidate(String tableName) throws IOException {
+        synchronized (locks.computeIfAbsent(tableName, k -> new Object())) {
+            mappings.remove(tableName);
+            Files.deleteIfExists(directory.resolve(tableName + ".mdc"));
+        }
+    }
+
+    // The symbol's live mapping, mapping its file on first use
+    private MappedByteBuffer mapping(String tableName, Path file) throws IOException {
+        MappedByteBuffer buffer = mappings.get(tableName);
+        if (buffer == null) {
+            buffer = map(file);
+            if (buffer != null) {
+                mappings.put(tableName, buffer);
+            }
+        }
+        return buffer;
+    }
+
+    // READ_WRITE mapping of a valid cache file, or null when it is missing or not in this format
+    private static MappedByteBuffer map(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < HEADER_BYTES) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || channel.size() < fileBytes(buffer.getInt(12)) || buffer.getInt(8) > buffer.getInt(12)) {
+                return null;
+            }
+            return buffer;
+        }
+    }
+
+    private static long fileBytes(int capacity) {
+        return columnOffset(capacity, COLUMNS);
+    }
+
+    // Byte offset of double column c (0 = close); dates sit right after the header
+    private static long columnOffset(int capacity, int c) {
+        long dates = HEADER_BYTES + 4L * capacity;
+        long aligned = (dates + 7) & ~7L;
+        return aligned + 8L * capacity * c;
+    }
+
+    private static void read(ByteBuffer buffer, int capacity, int count, int[] date, double[][] columns) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(HEADER_BYTES);
+        view.asIntBuffer().get(date, 0, count);
+        for (int c = 0; c < COLUMNS; c++) {
+            view.position((int) columnOffset(capacity, c));
+            view.asDoubleBuffer().get(columns[c], 0, count);
+        }
+    }
+
+    private static void copy(StockSeries added, int at, int[] date, double[][] columns) {
+        System.arraycopy(added.dateArray(), added.offset(), date, at, added.size());
+        StockSeries.Column[] names = StockSeries.Column.values();
+        for (int c = 0; c < COLUMNS; c++) {
+            System.arraycopy(added.array(names[c]), added.offset(), columns[c], at, added.size());
+        }
+    }
+
+    // Writes the new bars after the existing ones, then publishes them by updating count and watermark
+    private static void append(ByteBuffer buffer, int capacity, int count, StockSeries added) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(HEADER_BYTES + 4 * count);
+        view.asIntBuffer().put(added.dateArray(), added.offset(), added.size());
+        StockSeries.Column[] names = StockSeries.Column.values();
+        for (int c = 0; c < COLUMNS; c++) {
+            view.position((int) columnOffset(capacity, c) + 8 * count);
+            view.asDoubleBuffer().put(added.array(names[c]), added.offset(), added.size());
+        }
+        ((MappedByteBuffer) buffer).force();
+        buffer.putInt(8, count + added.size());
+        buffer.putInt(16, added.date(added.size() - 1));
+        ((MappedByteBuffer) buffer).force();
+    }
+
+    // New file with room to grow, written beside the old one through the channel. Its mapping replaces the old
+    // one before the move, so later loads never see the replaced file.
+    private void rewrite(String tableName, Path file, int capacity, int count, int[] date, double[][] columns) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, count);
+            header.putInt(12, capacity);
+            header.putInt(16, count == 0 ? 0 : date[count - 1]);
+            writeFully(channel, header, 0);
+
+            ByteBuffer dates = ByteBuffer.allocate(4 * count).order(ByteOrder.LITTLE_ENDIAN);
+            dates.asIntBuffer().put(date, 0, count);
+            writeFully(channel, dates, HEADER_BYTES);
+            ByteBuffer column = ByteBuffer.allocate(8 * count).order(ByteOrder.LITTLE_ENDIAN);
+            for (int c = 0; c < COLUMNS; c++) {
+                column.clear();
+                column.asDoubleBuffer().put(columns[c], 0, count);
+                writeFully(channel, column, columnOffset(capacity, c));
+            }
+            // Unused capacity is left as a hole, but the file must still span it for later appends
+            if (channel.size() < fileBytes(capacity)) {
+                writeFully(channel, ByteBuffer.allocate(1), fileBytes(capacity) - 1);
+            }
+            channel.force(true);
+        }
+        MappedByteBuffer buffer = map(temp);
+        if (buffer == null) {
+            throw new IOException("Rewritten cache file is not readable: " + temp);
+        }
+        mappings.put(tableName, buffer);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private synchronized void record(boolean cold, int cached, int fetched, long nanos) {
+        if (cold) {
+            coldLoads++;
+            coldNanos += nanos;
+        } else {
+            warmLoads++;
+            warmNanos += nanos;
+        }
+        cachedRows += cached;
+        fetchedRows += fetched;
+    }
+
+    // Cold loads read the whole table from MySQL; warm loads read the mapping plus the rows after its watermark
+    @Override
+    public synchronized String toString() {
+        return String.format("Market data cache: %d cold loads in %.1f ms, %d warm loads in %.1f ms, %d rows from disk, %d rows from MySQL",
+                coldLoads, coldNanos / 1e6, warmLoads, warmNanos / 1e6, cachedRows, fetchedRows);
+    }
+}
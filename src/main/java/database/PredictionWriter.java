@@ -0,0 +1,284 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Buffers prediction rows in a bounded queue and inserts them from one background thread as JDBC batches,
+// each batch in one transaction. A batch is sent when it reaches batchSize rows or flushIntervalMillis after
+// its first row, whichever comes first. write() blocks while the queue is full. close() (also run for every
+// open writer by one shutdown hook) inserts everything queued before returning. If the background thread
+// dies, write() and close() throw instead of waiting on a queue nothing drains, and the rows it never
+// inserted are counted as failed.
+//
+// MySQL only sends a batch as one multi-row INSERT with rewriteBatchedStatements=true on db.url.
+// If a batch fails it is rolled back and retried row by row, so one bad row costs only itself; every row
+// that still fails is logged with its symbol and counted.
+public class PredictionWriter implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(PredictionWriter.class.getName());
+    private static final Row END = new Row(null, null, null, 0, 0, 0, null, null);
+    // How often a blocked write() or close() checks that the background thread is still running
+    private static final long LIVENESS_CHECK_MILLIS = 100;
+    private static final Set<PredictionWriter> OPEN = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (PredictionWriter writer : OPEN) {
+                try {
+                    writer.close();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Prediction writer failed at shutdown", e);
+                }
+            }
+        }, "prediction-writer-shutdown"));
+    }
+
+    private final DatabaseHelper dbHelper;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<Row> queue;
+    // Writers hold the read lock while enqueuing so close() cannot slip END in ahead of their row
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final Thread flusher;
+    private boolean closed;
+    // Why the background thread stopped early, or null
+    private volatile Throwable failure;
+
+    private volatile long writtenRows;
+    private volatile long failedRows;
+    private volatile long batches;
+    private volatile long retriedBatches;
+
+    public PredictionWriter(DatabaseHelper dbHelper, int queueCapacity, int batchSize, long flushIntervalMillis) throws SQLException {
+        if (batchSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Batch size and queue capacity must be positive");
+        }
+        dbHelper.createPredictionsTableIfNotExists();
+        this.dbHelper = dbHelper;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flusher = new Thread(this::runFlusher, "prediction-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        OPEN.add(this);
+    }
+
+    // Queues one row for the predictions table, blocking while the queue is full. Throws
+    // IllegalStateException if the background thread has stopped.
+    public void write(String stockSymbol, String predict, String pointChangeStr, double priceChange, double prediction,
+                      double actual, LocalDate today, LocalDate predictionDate) throws InterruptedException {
+        Row row = new Row(stockSymbol, predict, pointChangeStr, priceChange, prediction, actual, today, predictionDate);
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Prediction writer is closed");
+            }
+            checkFlusher();
+            while (!queue.offer(row, LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFlusher();
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    // Inserts every queued row, then stops the background thread. Safe to call more than once. Throws
+    // IllegalStateException, once, if the background thread stopped before inserting everything.
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        boolean ended = false;
+        while (flusher.isAlive()) {
+            try {
+                if (!ended) {
+                    ended = queue.offer(END, LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    flusher.join();
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        OPEN.remove(this);
+        // Rows that were queued after the background thread stopped
+        for (Row row; (row = queue.poll()) != null; ) {
+            if (row != END) {
+                failedRows++;
+            }
+        }
+        LOGGER.log(Level.INFO, toString());
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Prediction writer stopped early; " + failedRows + " rows were not saved", failure);
+        }
+    }
+
+    public long getFailedRows() {
+        return failedRows;
+    }
+
+    private void checkFlusher() {
+        if (failure != null || !flusher.isAlive()) {
+            throw new IllegalStateException("Prediction writer has stopped", failure);
+        }
+    }
+
+    // Anything the loop throws stops the thread: the rows in hand and in the queue are counted as failed
+    private void runFlusher() {
+        List<Row> batch = new ArrayList<>(batchSize);
+        try {
+            drain(batch);
+        } catch (Throwable t) {
+            failure = t;
+            long lost = batch.size();
+            for (Row row; (row = queue.poll()) != null; ) {
+                if (row != END) {
+                    lost++;
+                }
+            }
+            failedRows += lost;
+            LOGGER.log(Level.SEVERE, "Prediction writer stopped; " + lost + " queued predictions were not saved", t);
+        }
+    }
+
+    private void drain(List<Row> batch) {
+        boolean done = false;
+        while (!done) {
+            try {
+                Row first = queue.take();
+                if (first == END) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    Row next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == END) {
+                        done = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Nobody interrupts this thread on purpose; keep draining so close() still sees every row
+                continue;
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<Row> batch) {
+        int handled = 0;
+        try (Connection conn = dbHelper.connect()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(DatabaseHelper.INSERT_PREDICTION_SQL)) {
+                for (Row row : batch) {
+                    row.bind(pstmt);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+                writtenRows += batch.size();
+                batches++;
+                return;
+            } catch (SQLException e) {
+                conn.rollback();
+                retriedBatches++;
+                LOGGER.log(Level.WARNING, "Batch of " + batch.size() + " predictions failed; retrying row by row", e);
+            }
+
+            conn.setAutoCommit(true);
+            try (PreparedStatement pstmt = conn.prepareStatement(DatabaseHelper.INSERT_PREDICTION_SQL)) {
+                for (Row row : batch) {
+                    try {
+                        row.bind(pstmt);
+                        pstmt.executeUpdate();
+                        writtenRows++;
+                    } catch (SQLException e) {
+                        fail(row, e);
+                    }
+                    handled++;
+                }
+            }
+        } catch (SQLException e) {
+            // No usable connection: nothing from here on was written
+            for (int i = handled; i < batch.size(); i++) {
+                fail(batch.get(i), e);
+            }
+        }
+    }
+
+    private void fail(Row row, SQLException e) {
+        failedRows++;
+        LOGGER.log(Level.SEVERE, "Error saving prediction for stock " + row.stockSymbol + " (" + row.today
+                + " -> " + row.predictionDate + ")", e);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Prediction writer: %d rows written in %d batches, %d batches retried row by row, %d rows failed",
+                writtenRows, batches, retriedBatches, failedRows);
+    }
+
+    private static final class Row {
+        final String stockSymbol;
+        final String predict;
+        final String pointChange;
+        final double priceChange;
+        final double prediction;
+        final double actual;
+        final LocalDate today;
+        final LocalDate predictionDate;
+
+        Row(String stockSymbol, String predict, String pointChange, double priceChange, double prediction, double actual,
+            LocalDate today, LocalDate predictionDate) {
+            this.stockSymbol = stockSymbol;
+            this.predict = predict;
+            this.pointChange = pointChange;
+            this.priceChange = priceChange;
+            this.prediction = prediction;
+            this.actual = actual;
+            this.today = today;
+            this.predictionDate = predictionDate;
+        }
+
+        void bind(PreparedStatement pstmt) throws SQLException {
+            pstmt.setString(1, stockSymbol);
+            pstmt.setString(2, predict);
+            pstmt.setString(3, pointChange);
+            pstmt.setDouble(4, priceChange);
+            pstmt.setDouble(5, prediction);
+            pstmt.setDouble(6, actual);
+            pstmt.setDate(7, Date.valueOf(today));
+            pstmt.setDate(8, Date.valueOf(predictionDate));
+        }
+    }
+}
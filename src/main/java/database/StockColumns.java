@@ -0,0 +1,70 @@
+package database;
+
+import util.StockSeries;
+
+import java.util.Arrays;
+
+// Growable primitive columns filled while a stock table's result set streams in; toSeries() hands them
+// over as a StockSeries without copying. The arrays may be longer than size().
+public class StockColumns implements StockRowHandler {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] date;
+    private double[] close;
+    private double[] high;
+    private double[] low;
+    private double[] open;
+    private double[] volume;
+    private double[] turnover;
+    private int size;
+
+    public StockColumns() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public StockColumns(int capacity) {
+        int initial = Math.max(capacity, 16);
+        date = new int[initial];
+        close = new double[initial];
+        high = new double[initial];
+        low = new double[initial];
+        open = new double[initial];
+        volume = new double[initial];
+        turnover = new double[initial];
+    }
+
+    @Override
+    public void onRow(int date, double close, double high, double low, double open, double volume, double turnover) {
+        if (size == this.date.length) {
+            grow();
+        }
+        this.date[size] = date;
+        this.close[size] = close;
+        this.high[size] = high;
+        this.low[size] = low;
+        this.open[size] = open;
+        this.volume[size] = volume;
+        this.turnover[size] = turnover;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = date.length + (date.length >> 1);
+        date = Arrays.copyOf(date, capacity);
+        close = Arrays.copyOf(close, capacity);
+        high = Arrays.copyOf(high, capacity);
+        low = Arrays.copyOf(low, capacity);
+        open = Arrays.copyOf(open, capacity);
+        volume = Arrays.copyOf(volume, capacity);
+        turnover = Arrays.copyOf(turnover, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The rows read so far; the series takes over the arrays, so stop appending afterwards
+    public StockSeries toSeries() {
+        return new StockSeries(date, close, high, low, open, volume, turnover, size);
+    }
+}
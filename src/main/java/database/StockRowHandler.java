@@ -0,0 +1,6 @@
+package database;
+
+// Receives one daily bar at a time from DatabaseHelper.streamStockData, in date order; date is an epoch day
+public interface StockRowHandler {
+    void onRow(int date, double close, double high, double low, double open, double volume, double turnover);
+}
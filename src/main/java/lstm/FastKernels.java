@@ -0,0 +1,175 @@
+package lstm;
+
+// Register-blocked, branch-free loops that C2 can unroll and auto-vectorize, with a [13/12] Pade
+// approximation of tanh (max error about 4e-8, saturated beyond |x| = 9) instead of Math.exp/Math.tanh
+final class FastKernels implements Kernels {
+    private static final double TANH_CLAMP = 9.0;
+
+    static final double P0 = 7905853580625.0;
+    static final double P1 = 1159525191825.0;
+    static final double P2 = 41247931725.0;
+    static final double P3 = 523783260.0;
+    static final double P4 = 2552550.0;
+    static final double P5 = 4095.0;
+
+    static final double Q0 = 7905853580625.0;
+    static final double Q1 = 3794809718700.0;
+    static final double Q2 = 252070693875.0;
+    static final double Q3 = 5237832600.0;
+    static final double Q4 = 41351310.0;
+    static final double Q5 = 120120.0;
+    static final double Q6 = 91.0;
+
+    static double tanhApprox(double v) {
+        double x = Math.max(-TANH_CLAMP, Math.min(TANH_CLAMP, v));
+        double y = x * x;
+        double p = P0 + y * (P1 + y * (P2 + y * (P3 + y * (P4 + y * (P5 + y)))));
+        double q = Q0 + y * (Q1 + y * (Q2 + y * (Q3 + y * (Q4 + y * (Q5 + y * Q6)))));
+        return x * p / q;
+    }
+
+    static float tanhApprox(float v) {
+        float x = Math.max((float) -TANH_CLAMP, Math.min((float) TANH_CLAMP, v));
+        float y = x * x;
+        float p = (float) P0 + y * ((float) P1 + y * ((float) P2 + y * ((float) P3 + y * ((float) P4 + y * ((float) P5 + y)))));
+        float q = (float) Q0 + y * ((float) Q1 + y * ((float) Q2 + y * ((float) Q3 + y * ((float) Q4 + y * ((float) Q5 + y * (float) Q6)))));
+        return x * p / q;
+    }
+
+    // Four rows per pass so every x[j] load feeds four dot products
+    @Override
+    public void gemv(double[] w, int rows, int stride, int n, double[] bias, double[] x, int xOff, double[] out, int outOff) {
+        int r = 0;
+        for (; r + 3 < rows; r += 4) {
+            int b0 = r * stride;
+            int b1 = b0 + stride;
+            int b2 = b1 + stride;
+            int b3 = b2 + stride;
+            double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+            for (int j = 0; j < n; j++) {
+                double xj = x[xOff + j];
+                sum0 += w[b0 + j] * xj;
+                sum1 += w[b1 + j] * xj;
+                sum2 += w[b2 + j] * xj;
+                sum3 += w[b3 + j] * xj;
+            }
+            out[outOff + r] = sum0 + bias[r];
+            out[outOff + r + 1] = sum1 + bias[r + 1];
+            out[outOff + r + 2] = sum2 + bias[r + 2];
+            out[outOff + r + 3] = sum3 + bias[r + 3];
+        }
+        for (; r < rows; r++) {
+            int base = r * stride;
+            double sum = 0;
+            for (int j = 0; j < n; j++) {
+                sum += w[base + j] * x[xOff + j];
+            }
+            out[outOff + r] = sum + bias[r];
+        }
+    }
+
+    // Four samples per pass so every w[j] load feeds four dot products
+    @Override
+    public void gemm(double[] w, int rows, int stride, int n, double[] bias, double[] x, int count, double[] out) {
+        for (int r = 0; r < rows; r++) {
+            int base = r * stride;
+            double b = bias[r];
+            int s = 0;
+            for (; s + 3 < count; s += 4) {
+                int x0 = s * stride;
+                int x1 = x0 + stride;
+                int x2 = x1 + stride;
+                int x3 = x2 + stride;
+                double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+                for (int j = 0; j < n; j++) {
+                    double wj = w[base + j];
+                    sum0 += wj * x[x0 + j];
+                    sum1 += wj * x[x1 + j];
+                    sum2 += wj * x[x2 + j];
+                    sum3 += wj * x[x3 + j];
+                }
+                out[s * rows + r] = sum0 + b;
+                out[(s + 1) * rows + r] = sum1 + b;
+                out[(s + 2) * rows + r] = sum2 + b;
+                out[(s + 3) * rows + r] = sum3 + b;
+            }
+            for (; s < count; s++) {
+                int xBase = s * stride;
+                double sum = 0;
+                for (int j = 0; j < n; j++) {
+                    sum += w[base + j] * x[xBase + j];
+                }
+                out[s * rows + r] = sum + b;
+            }
+        }
+    }
+
+    // Four samples per pass over each gradient row, so the row is loaded and stored once per four samples
+    @Override
+    public void gemmTransposeAccumulate(double[] grad, double[] gradBias, int rows, int stride, int n, double[] d, double[] x, int count) {
+        for (int r = 0; r < rows; r++) {
+            int base = r * stride;
+            double biasGrad = 0;
+            int s = 0;
+            for (; s + 3 < count; s += 4) {
+                double d0 = d[s * rows + r];
+                double d1 = d[(s + 1) * rows + r];
+                double d2 = d[(s + 2) * rows + r];
+                double d3 = d[(s + 3) * rows + r];
+                int x0 = s * stride;
+                int x1 = x0 + stride;
+                int x2 = x1 + stride;
+                int x3 = x2 + stride;
+                for (int j = 0; j < n; j++) {
+                    grad[base + j] += d0 * x[x0 + j] + d1 * x[x1 + j] + d2 * x[x2 + j] + d3 * x[x3 + j];
+                }
+                biasGrad += d0 + d1 + d2 + d3;
+            }
+            for (; s < count; s++) {
+                double ds = d[s * rows + r];
+                int xBase = s * stride;
+                for (int j = 0; j < n; j++) {
+                    grad[base + j] += ds * x[xBase + j];
+                }
+                biasGrad += ds;
+            }
+            gradBias[r] += biasGrad;
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        for (int j = 0; j < n; j++) {
+            y[yOff + j] += alpha * x[xOff + j];
+        }
+    }
+
+    // sigmoid(x) = (1 + tanh(x / 2)) / 2
+    @Override
+    public void sigmoid(double[] v, int from, int to) {
+        for (int i = from; i < to; i++) {
+            v[i] = 0.5 + 0.5 * tanhApprox(0.5 * v[i]);
+        }
+    }
+
+    @Override
+    public void tanh(double[] v, int from, int to) {
+        for (int i = from; i < to; i++) {
+            v[i] = tanhApprox(v[i]);
+        }
+    }
+
+    @Override
+    public double tanh(double x) {
+        return tanhApprox(x);
+    }
+
+    @Override
+    public void cellUpdate(double[] gates, int gOff, double[] cellState, double[] newCellState, double[] newHiddenState, int hOff, int h) {
+        for (int i = 0; i < h; i++) {
+            double c = gates[gOff + i] * cellState[i] + gates[gOff + h + i] * gates[gOff + 3 * h + i];
+            newCellState[hOff + i] = c;
+            newHiddenState[hOff + i] = gates[gOff + 2 * h + i] * tanhApprox(c);
+        }
+    }
+}
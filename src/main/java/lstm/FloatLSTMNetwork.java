@@ -0,0 +1,340 @@
+package lstm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+// Single-precision variant of LSTMNetwork with the same packed layout: half the weight bytes per step and
+// twice the SIMD lanes. Inputs and outputs stay double at the API boundary; weights, state and activations are float.
+public class FloatLSTMNetwork {
+    private final int inputSize;
+    private final int hiddenSize;
+    private final int outputSize;
+
+    // Gate rows are packed in the order forget, input, output, candidate
+    private static final int GATES = 4;
+    // Row stride is padded to a multiple of 16 floats. This sets row lengths only; the JVM decides where the
+    // array itself sits, so rows have no guaranteed memory alignment.
+    private static final int ROW_ALIGNMENT = 16;
+
+    private final int combinedSize;
+    private final int rowStride;
+
+    // [4 * hiddenSize][rowStride] row-major, one row per gate unit
+    private final float[] W;
+    // [4 * hiddenSize]
+    private final float[] b;
+    // [outputSize][hiddenSize] row-major
+    private final float[] Wy;
+    private final float[] by;
+
+    private final float[] hiddenState;
+    private final float[] cellState;
+
+    private FloatLSTMWorkspace workspace;
+
+    private final float clipThreshold = 5.0f;
+
+    public FloatLSTMNetwork(int inputSize, int hiddenSize, int outputSize) {
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+
+        this.combinedSize = inputSize + hiddenSize;
+        this.rowStride = (combinedSize + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+
+        W = new float[GATES * hiddenSize * rowStride];
+        b = new float[GATES * hiddenSize];
+        Wy = new float[outputSize * hiddenSize];
+        by = new float[outputSize];
+
+        hiddenState = new float[hiddenSize];
+        cellState = new float[hiddenSize];
+
+        Random rand = new Random();
+        for (int r = 0; r < GATES * hiddenSize; r++) {
+            for (int j = 0; j < combinedSize; j++) {
+                W[r * rowStride + j] = (float) (rand.nextGaussian() * 0.1);
+            }
+            b[r] = (float) (rand.nextGaussian() * 0.1);
+        }
+        for (int k = 0; k < Wy.length; k++) {
+            Wy[k] = (float) (rand.nextGaussian() * 0.1);
+        }
+        for (int i = 0; i < outputSize; i++) {
+            by[i] = (float) (rand.nextGaussian() * 0.1);
+        }
+    }
+
+    // Converts a double model; gate weights arrive with the double model's row stride
+    FloatLSTMNetwork(int inputSize, int hiddenSize, int outputSize, double[] W, int sourceStride, double[] b,
+                     double[] Wy, double[] by, double[] hiddenState, double[] cellState) {
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+
+        this.combinedSize = inputSize + hiddenSize;
+        this.rowStride = (combinedSize + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+
+        this.W = new float[GATES * hiddenSize * rowStride];
+        for (int r = 0; r < GATES * hiddenSize; r++) {
+            for (int j = 0; j < combinedSize; j++) {
+                this.W[r * rowStride + j] = (float) W[r * sourceStride + j];
+            }
+        }
+        this.b = toFloat(b);
+        this.Wy = toFloat(Wy);
+        this.by = toFloat(by);
+        this.hiddenState = toFloat(hiddenState);
+        this.cellState = toFloat(cellState);
+    }
+
+    private FloatLSTMNetwork(int inputSize, int hiddenSize, int outputSize, float[] W, float[] b, float[] Wy,
+                             float[] by, float[] hiddenState, float[] cellState) {
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+        this.combinedSize = inputSize + hiddenSize;
+        this.rowStride = (combinedSize + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+
+        this.W = W;
+        this.b = b;
+        this.Wy = Wy;
+        this.by = by;
+        this.hiddenState = hiddenState;
+        this.cellState = cellState;
+    }
+
+    private static float[] toFloat(double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+
+    public FloatLSTMWorkspace newWorkspace() {
+        return new FloatLSTMWorkspace(inputSize, hiddenSize, outputSize);
+    }
+
+    private FloatLSTMWorkspace workspace() {
+        if (workspace == null) {
+            workspace = newWorkspace();
+        }
+        return workspace;
+    }
+
+    public double[] forward(double[] input, float[] hiddenState, float[] cellState) {
+        float[] output = forward(input, hiddenState, cellState, workspace());
+        double[] result = new double[outputSize];
+        for (int i = 0; i < outputSize; i++) {
+            result[i] = output[i];
+        }
+        return result;
+    }
+
+    // Allocation-free forward step: updates hiddenState/cellState in place and returns ws.getOutput()
+    public float[] forward(double[] input, float[] hiddenState, float[] cellState, FloatLSTMWorkspace ws) {
+        if (input.length != inputSize) {
+            throw new IllegalArgumentException("Input size must match the network input size" + input.length + " : " + inputSize);
+        }
+
+        step(input, hiddenState, cellState, ws);
+
+        System.arraycopy(ws.newCellState, 0, cellState, 0, hiddenSize);
+        System.arraycopy(ws.newHiddenState, 0, hiddenState, 0, hiddenSize);
+
+        return ws.output;
+    }
+
+    private void step(double[] input, float[] hiddenState, float[] cellState, FloatLSTMWorkspace ws) {
+        float[] combined = ws.combined;
+        for (int i = 0; i < inputSize; i++) {
+            combined[i] = (float) input[i];
+        }
+        System.arraycopy(hiddenState, 0, combined, inputSize, hiddenSize);
+
+        int h = hiddenSize;
+        float[] gates = ws.gates;
+        gemv(W, GATES * h, rowStride, combinedSize, b, combined, gates);
+        for (int r = 0; r < 3 * h; r++) {
+            gates[r] = 0.5f + 0.5f * tanh(0.5f * gates[r]);
+        }
+        for (int r = 3 * h; r < GATES * h; r++) {
+            gates[r] = tanh(gates[r]);
+        }
+
+        float[] newCellState = ws.newCellState;
+        float[] newHiddenState = ws.newHiddenState;
+        for (int i = 0; i < h; i++) {
+            float c = gates[i] * cellState[i] + gates[h + i] * gates[3 * h + i];
+            newCellState[i] = c;
+            newHiddenState[i] = gates[2 * h + i] * tanh(c);
+        }
+
+        gemv(Wy, outputSize, h, h, by, newHiddenState, ws.output);
+    }
+
+    public void clipGradients(float threshold) {
+        clip(W, threshold);
+        clip(b, threshold);
+        clip(Wy, threshold);
+        clip(by, threshold);
+    }
+
+    private static void clip(float[] values, float threshold) {
+        for (int k = 0; k < values.length; k++) {
+            values[k] = Math.min(values[k], threshold);
+        }
+    }
+
+    public void backpropagate(double[] input, double[] target, float learningRate) {
+        backpropagate(input, target, learningRate, workspace());
+    }
+
+    // Same update rule as LSTMNetwork.backpropagate, applied in place in single precision
+    public void backpropagate(double[] input, double[] target, float learningRate, FloatLSTMWorkspace ws) {
+        step(input, hiddenState, cellState, ws);
+        int h = hiddenSize;
+
+        float[] gates = ws.gates;
+        float[] newCellState = ws.newCellState;
+        float[] newHiddenState = ws.newHiddenState;
+        float[] dOutput = ws.dOutput;
+        for (int i = 0; i < outputSize; i++) {
+            dOutput[i] = ws.output[i] - (float) target[i];
+        }
+
+        // Hidden/cell gradients read Wy before it is updated below
+        float[] dHiddenState = ws.dHiddenState;
+        float[] dCellState = ws.dCellState;
+        for (int i = 0; i < h; i++) {
+            float sum = 0;
+            for (int j = 0; j < outputSize; j++) {
+                sum += dOutput[j] * Wy[j * h + i];
+            }
+            float ot = gates[2 * h + i];
+            float tanhCell = tanh(newCellState[i]);
+            float dTanh = ot * (1 - tanhCell * tanhCell);
+            dHiddenState[i] = sum * dTanh;
+            dCellState[i] = dHiddenState[i] * dTanh + newCellState[i] * (1 - newCellState[i]);
+        }
+
+        for (int i = 0; i < outputSize; i++) {
+            float scale = learningRate * dOutput[i];
+            axpy(-scale, newHiddenState, Wy, i * h, h);
+            by[i] -= scale;
+        }
+
+        float[] dGates = ws.dGates;
+        for (int i = 0; i < h; i++) {
+            float ft = gates[i];
+            float it = gates[h + i];
+            float ot = gates[2 * h + i];
+            float ctHat = gates[3 * h + i];
+            dGates[i] = dCellState[i] * cellState[i] * ft * (1 - ft);
+            dGates[h + i] = dCellState[i] * ctHat * it * (1 - it);
+            dGates[2 * h + i] = dHiddenState[i] * newHiddenState[i] * ot * (1 - ot);
+            dGates[3 * h + i] = dCellState[i] * it * (1 - ctHat * ctHat);
+        }
+
+        // Rank-1 update W -= lr * dGates x combined, row by row
+        float[] combined = ws.combined;
+        for (int r = 0; r < dGates.length; r++) {
+            float scale = learningRate * dGates[r];
+            axpy(-scale, combined, W, r * rowStride, combinedSize);
+            b[r] -= scale;
+        }
+
+        clipGradients(clipThreshold);
+    }
+
+    public void resetState() {
+        Arrays.fill(hiddenState, 0);
+        Arrays.fill(cellState, 0);
+    }
+
+    // Four rows per pass so every x[j] load feeds four dot products
+    private static void gemv(float[] w, int rows, int stride, int n, float[] bias, float[] x, float[] out) {
+        int r = 0;
+        for (; r + 3 < rows; r += 4) {
+            int b0 = r * stride;
+            int b1 = b0 + stride;
+            int b2 = b1 + stride;
+            int b3 = b2 + stride;
+            float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+            for (int j = 0; j < n; j++) {
+                float xj = x[j];
+                sum0 += w[b0 + j] * xj;
+                sum1 += w[b1 + j] * xj;
+                sum2 += w[b2 + j] * xj;
+                sum3 += w[b3 + j] * xj;
+            }
+            out[r] = sum0 + bias[r];
+            out[r + 1] = sum1 + bias[r + 1];
+            out[r + 2] = sum2 + bias[r + 2];
+            out[r + 3] = sum3 + bias[r + 3];
+        }
+        for (; r < rows; r++) {
+            int base = r * stride;
+            float sum = 0;
+            for (int j = 0; j < n; j++) {
+                sum += w[base + j] * x[j];
+            }
+            out[r] = sum + bias[r];
+        }
+    }
+
+    private static void axpy(float alpha, float[] x, float[] y, int yOff, int n) {
+        for (int j = 0; j < n; j++) {
+            y[yOff + j] += alpha * x[j];
+        }
+    }
+
+    private static float tanh(float x) {
+        return FastKernels.tanhApprox(x);
+    }
+
+    public float[] getHiddenState() {
+        return hiddenState;
+    }
+
+    public float[] getCellState() {
+        return cellState;
+    }
+
+    public int getHiddenSize() {
+        return hiddenSize;
+    }
+
+    // Bytes held by weights and biases
+    public long getWeightBytes() {
+        return 4L * (W.length + b.length + Wy.length + by.length);
+    }
+
+    public void saveModel(String filePath) throws IOException {
+        ModelFile.write(filePath, inputSize, hiddenSize, outputSize, rowStride,
+                W, b, Wy, by, hiddenState, cellState);
+    }
+
+    // Returns null if there is no model at filePath yet; unreadable or corrupt files fail with an IOException
+    public static FloatLSTMNetwork loadModel(String filePath) throws IOException {
+        if (!new File(filePath).exists()) {
+            System.out.println("\u001B[32m Creating Model....\u001B[0m");
+            return null;
+        }
+        ModelFile file = ModelFile.read(filePath);
+        file.verifyChecksum(filePath);
+        if (file.dtype != ModelFile.FLOAT32) {
+            throw new IOException(filePath + " holds a double-precision model; load it with LSTMNetwork.loadModel");
+        }
+        FloatLSTMNetwork network = new FloatLSTMNetwork(file.inputSize, file.hiddenSize, file.outputSize,
+                file.readFloats(ModelFile.W), file.readFloats(ModelFile.B), file.readFloats(ModelFile.WY),
+                file.readFloats(ModelFile.BY), file.readFloats(ModelFile.HIDDEN_STATE), file.readFloats(ModelFile.CELL_STATE));
+        if (network.rowStride != file.rowStride) {
+            throw new IOException(filePath + " has row stride " + file.rowStride + ", expected " + network.rowStride);
+        }
+        return network;
+    }
+}
@@ -0,0 +1,28 @@
+package lstm;
+
+// Single-sample trainer for FloatLSTMNetwork, mirroring LSTMTrainer.trainEpoch
+public class FloatLSTMTrainer {
+    private final FloatLSTMNetwork network;
+    private final float learningRate;
+
+    public FloatLSTMTrainer(FloatLSTMNetwork network, float learningRate) {
+        this.network = network;
+        this.learningRate = learningRate;
+    }
+
+    // One pass over inputs in the given order; targets are read from targets[i] starting at targetOffset.
+    // Returns the summed squared error.
+    public double trainEpoch(double[][] inputs, double[][] targets, int targetOffset, int[] order) {
+        FloatLSTMWorkspace workspace = network.newWorkspace();
+        double[] target = new double[1];
+        double totalError = 0;
+        for (int i : order) {
+            target[0] = targets[i][targetOffset];
+            network.backpropagate(inputs[i], target, learningRate, workspace);
+            // The workspace still holds the output computed before the update
+            double error = target[0] - workspace.getOutput()[0];
+            totalError += error * error;
+        }
+        return totalError;
+    }
+}
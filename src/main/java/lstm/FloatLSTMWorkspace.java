@@ -0,0 +1,31 @@
+package lstm;
+
+// Single-precision counterpart of LSTMWorkspace. Not thread-safe; give each thread its own.
+public final class FloatLSTMWorkspace {
+    final float[] combined;
+    final float[] gates;
+    final float[] newCellState;
+    final float[] newHiddenState;
+    final float[] output;
+    final float[] dOutput;
+    final float[] dHiddenState;
+    final float[] dCellState;
+    final float[] dGates;
+
+    FloatLSTMWorkspace(int inputSize, int hiddenSize, int outputSize) {
+        combined = new float[inputSize + hiddenSize];
+        gates = new float[4 * hiddenSize];
+        newCellState = new float[hiddenSize];
+        newHiddenState = new float[hiddenSize];
+        output = new float[outputSize];
+        dOutput = new float[outputSize];
+        dHiddenState = new float[hiddenSize];
+        dCellState = new float[hiddenSize];
+        dGates = new float[4 * hiddenSize];
+    }
+
+    // Output of the last forward step; overwritten by the next one
+    public float[] getOutput() {
+        return output;
+    }
+}
@@ -0,0 +1,146 @@
+package lstm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Resolves the lstm.kernels system property once and checks the chosen backend against the scalar one,
+// falling back from vector to fast to scalar
+final class KernelSelection {
+    private static final Logger LOGGER = Logger.getLogger(KernelSelection.class.getName());
+
+    static final Kernels ACTIVE = select(System.getProperty("lstm.kernels", "vector"));
+
+    private KernelSelection() {
+    }
+
+    static Kernels select(String name) {
+        Kernels scalar = new ScalarKernels();
+        if ("scalar".equalsIgnoreCase(name)) {
+            return scalar;
+        }
+        if (!"fast".equalsIgnoreCase(name) && !"vector".equalsIgnoreCase(name)) {
+            LOGGER.log(Level.WARNING, "Unknown lstm.kernels value {0}, using scalar kernels", name);
+            return scalar;
+        }
+        if ("vector".equalsIgnoreCase(name)) {
+            Kernels vector = vectorKernels();
+            if (vector != null) {
+                double error = parityError(vector, scalar);
+                if (error <= Kernels.PARITY_TOLERANCE) {
+                    return vector;
+                }
+                LOGGER.log(Level.WARNING, "Vector kernels differ from scalar kernels by {0}, trying fast kernels", error);
+            }
+        }
+        Kernels fast = new FastKernels();
+        double error = parityError(fast, scalar);
+        if (error > Kernels.PARITY_TOLERANCE) {
+            LOGGER.log(Level.WARNING, "Fast kernels differ from scalar kernels by {0}, using scalar kernels", error);
+            return scalar;
+        }
+        return fast;
+    }
+
+    // The Vector API backend, or null when the JVM was started without --add-modules jdk.incubator.vector or
+    // the CPU has no SIMD lanes for doubles. Loaded by name so this class links without the module.
+    static Kernels vectorKernels() {
+        try {
+            return (Kernels) Class.forName("lstm.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+            LOGGER.log(Level.INFO, "Vector kernels unavailable ({0}), using fast kernels", String.valueOf(cause));
+            return null;
+        }
+    }
+
+    // Largest absolute difference between two backends over every kernel, on random network-sized inputs
+    static double parityError(Kernels candidate, Kernels reference) {
+        Random rand = new Random(42);
+        int rows = 64;
+        int n = 37;
+        int stride = 40;
+        int count = 5;
+        double[] w = gaussian(rand, rows * stride, 0.5);
+        double[] bias = gaussian(rand, rows, 0.5);
+        double[] x = gaussian(rand, count * stride, 1.0);
+
+        double[] expected = new double[count * rows];
+        double[] actual = new double[count * rows];
+        reference.gemm(w, rows, stride, n, bias, x, count, expected);
+        candidate.gemm(w, rows, stride, n, bias, x, count, actual);
+        double error = maxDifference(expected, actual);
+
+        double[] gemvExpected = new double[rows];
+        double[] gemvActual = new double[rows];
+        reference.gemv(w, rows, stride, n, bias, x, stride, gemvExpected, 0);
+        candidate.gemv(w, rows, stride, n, bias, x, stride, gemvActual, 0);
+        error = Math.max(error, maxDifference(gemvExpected, gemvActual));
+
+        double[] gradExpected = new double[rows * stride];
+        double[] gradActual = new double[rows * stride];
+        double[] biasExpected = new double[rows];
+        double[] biasActual = new double[rows];
+        reference.gemmTransposeAccumulate(gradExpected, biasExpected, rows, stride, n, expected, x, count);
+        candidate.gemmTransposeAccumulate(gradActual, biasActual, rows, stride, n, expected, x, count);
+        error = Math.max(error, maxDifference(gradExpected, gradActual));
+        error = Math.max(error, maxDifference(biasExpected, biasActual));
+
+        double[] axpyExpected = bias.clone();
+        double[] axpyActual = bias.clone();
+        reference.axpy(0.3, x, 3, axpyExpected, 1, rows - 1);
+        candidate.axpy(0.3, x, 3, axpyActual, 1, rows - 1);
+        error = Math.max(error, maxDifference(axpyExpected, axpyActual));
+
+        double[] activations = new double[2001];
+        for (int i = 0; i < activations.length; i++) {
+            activations[i] = -20 + i * 0.02;
+        }
+        double[] sigmoidExpected = activations.clone();
+        double[] sigmoidActual = activations.clone();
+        reference.sigmoid(sigmoidExpected, 0, activations.length);
+        candidate.sigmoid(sigmoidActual, 0, activations.length);
+        error = Math.max(error, maxDifference(sigmoidExpected, sigmoidActual));
+
+        double[] tanhExpected = activations.clone();
+        double[] tanhActual = activations.clone();
+        reference.tanh(tanhExpected, 0, activations.length);
+        candidate.tanh(tanhActual, 0, activations.length);
+        error = Math.max(error, maxDifference(tanhExpected, tanhActual));
+        for (double a : activations) {
+            error = Math.max(error, Math.abs(reference.tanh(a) - candidate.tanh(a)));
+        }
+
+        int h = 16;
+        double[] gates = new double[4 * h];
+        for (int i = 0; i < gates.length; i++) {
+            gates[i] = i < 3 * h ? rand.nextDouble() : 2 * rand.nextDouble() - 1;
+        }
+        double[] cell = gaussian(rand, h, 2.0);
+        double[] cellExpected = new double[h];
+        double[] cellActual = new double[h];
+        double[] hiddenExpected = new double[h];
+        double[] hiddenActual = new double[h];
+        reference.cellUpdate(gates, 0, cell, cellExpected, hiddenExpected, 0, h);
+        candidate.cellUpdate(gates, 0, cell, cellActual, hiddenActual, 0, h);
+        error = Math.max(error, maxDifference(cellExpected, cellActual));
+        return Math.max(error, maxDifference(hiddenExpected, hiddenActual));
+    }
+
+    private static double[] gaussian(Random rand, int length, double scale) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = rand.nextGaussian() * scale;
+        }
+        return values;
+    }
+
+    private static double maxDifference(double[] a, double[] b) {
+        double max = 0;
+        for (int i = 0; i < a.length; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+}
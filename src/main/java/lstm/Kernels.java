@@ -0,0 +1,35 @@
+package lstm;
+
+// Numeric inner loops of the network. The backend is picked once per JVM from the lstm.kernels system
+// property: "scalar" keeps the reference Math.exp/Math.tanh loops, "fast" uses lane-unrolled loops and
+// rational activations, and "vector" (the default) uses explicit SIMD lanes from jdk.incubator.vector when
+// the JVM runs with --add-modules jdk.incubator.vector, otherwise fast. A backend is only used if it agrees
+// with the scalar one to within PARITY_TOLERANCE on a self-check at startup.
+public interface Kernels {
+    double PARITY_TOLERANCE = 1e-6;
+
+    // out[outOff + r] = w[r * stride .. r * stride + n) . x[xOff .. xOff + n) + bias[r] for r < rows
+    void gemv(double[] w, int rows, int stride, int n, double[] bias, double[] x, int xOff, double[] out, int outOff);
+
+    // out[s * rows + r] = w row r . x[s * stride ..] + bias[r] for s < count
+    void gemm(double[] w, int rows, int stride, int n, double[] bias, double[] x, int count, double[] out);
+
+    // grad[r * stride + j] += sum_s d[s * rows + r] * x[s * stride + j]; gradBias[r] += sum_s d[s * rows + r]
+    void gemmTransposeAccumulate(double[] grad, double[] gradBias, int rows, int stride, int n, double[] d, double[] x, int count);
+
+    // y[yOff + j] += alpha * x[xOff + j] for j < n
+    void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n);
+
+    void sigmoid(double[] v, int from, int to);
+
+    void tanh(double[] v, int from, int to);
+
+    double tanh(double x);
+
+    // Gates at gOff hold [forget | input | output | candidate] activations of width h
+    void cellUpdate(double[] gates, int gOff, double[] cellState, double[] newCellState, double[] newHiddenState, int hOff, int h);
+
+    static Kernels active() {
+        return KernelSelection.ACTIVE;
+    }
+}
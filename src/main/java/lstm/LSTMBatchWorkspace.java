@@ -0,0 +1,95 @@
+package lstm;
+
+import java.util.Arrays;
+
+// Row-major [batch][...] blocks for a mini-batch plus the gradient accumulators it sums into.
+// Callers fill slots with setInput/setTarget, then hand the workspace to LSTMNetwork.backpropagateBatch.
+// Not thread-safe; give each thread its own.
+public final class LSTMBatchWorkspace {
+    final int capacity;
+    final int inputSize;
+    final int hiddenSize;
+    final int outputSize;
+    final int rowStride;
+
+    // [batch][rowStride], input followed by the previous hidden state
+    final double[] combined;
+    // [batch][4 * hiddenSize]
+    final double[] gates;
+    final double[] dGates;
+    // [batch][hiddenSize]
+    final double[] newCellState;
+    final double[] newHiddenState;
+    // [batch][outputSize]
+    final double[] output;
+    final double[] targets;
+
+    final double[] gradW;
+    final double[] gradB;
+    final double[] gradWy;
+    final double[] gradBy;
+
+    LSTMBatchWorkspace(int capacity, int inputSize, int hiddenSize, int outputSize, int rowStride) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+        this.rowStride = rowStride;
+
+        combined = new double[capacity * rowStride];
+        gates = new double[capacity * 4 * hiddenSize];
+        dGates = new double[capacity * 4 * hiddenSize];
+        newCellState = new double[capacity * hiddenSize];
+        newHiddenState = new double[capacity * hiddenSize];
+        output = new double[capacity * outputSize];
+        targets = new double[capacity * outputSize];
+
+        gradW = new double[4 * hiddenSize * rowStride];
+        gradB = new double[4 * hiddenSize];
+        gradWy = new double[outputSize * hiddenSize];
+        gradBy = new double[outputSize];
+    }
+
+    // Adds other's accumulated gradients into this workspace and clears other's
+    void addGradients(LSTMBatchWorkspace other) {
+        add(gradW, other.gradW);
+        add(gradB, other.gradB);
+        add(gradWy, other.gradWy);
+        add(gradBy, other.gradBy);
+        other.clearGradients();
+    }
+
+    private static void add(double[] into, double[] from) {
+        for (int k = 0; k < into.length; k++) {
+            into[k] += from[k];
+        }
+    }
+
+    void clearGradients() {
+        Arrays.fill(gradW, 0);
+        Arrays.fill(gradB, 0);
+        Arrays.fill(gradWy, 0);
+        Arrays.fill(gradBy, 0);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Copies inputSize values starting at src[srcPos] into the given batch slot
+    public void setInput(int slot, double[] src, int srcPos) {
+        System.arraycopy(src, srcPos, combined, slot * rowStride, inputSize);
+    }
+
+    // Copies outputSize values starting at src[srcPos] into the given batch slot
+    public void setTargets(int slot, double[] src, int srcPos) {
+        System.arraycopy(src, srcPos, targets, slot * outputSize, outputSize);
+    }
+
+    public double getOutput(int slot, int index) {
+        return output[slot * outputSize + index];
+    }
+}
@@ -1,31 +1,39 @@
 package lstm;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
-public class LSTMNetwork implements Serializable {
+public class LSTMNetwork {
     private final int inputSize;
     private final int hiddenSize;
     private final int outputSize;
 
-    private final double[][] Wf;
-    private final double[][] Wi;
-    private final double[][] Wo;
-    private final double[][] Wc;
-    private final double[][] Wy;
-    private final double[] bf;
-    private final double[] bi;
-    private final double[] bo;
-    private final double[] bc;
+    private static final Kernels KERNELS = Kernels.active();
+
+    // Gate rows are packed in the order forget, input, output, candidate
+    private static final int GATES = 4;
+    // Row stride is padded to a multiple of 8 doubles. This sets row lengths only; the JVM decides where the
+    // array itself sits, so rows have no guaranteed memory alignment.
+    private static final int ROW_ALIGNMENT = 8;
+
+    private final int combinedSize;
+    private final int rowStride;
+
+    // [4 * hiddenSize][rowStride] row-major, one row per gate unit
+    private final double[] W;
+    // [4 * hiddenSize]
+    private final double[] b;
+    // [outputSize][hiddenSize] row-major
+    private final double[] Wy;
     private final double[] by;
 
     private double[] hiddenState;
     private double[] cellState;
 
-    private double[] ft;
-    private double[] it;
-    private double[] ot;
-    private double[] ct_hat;
+    // Scratch for the convenience overloads, one per calling thread
+    private final ThreadLocal<LSTMWorkspace> workspaces = ThreadLocal.withInitial(this::newWorkspace);
 
     private final double clipThreshold = 5.0;
 
@@ -34,253 +42,473 @@ public class LSTMNetwork implements Serializable {
         this.hiddenSize = hiddenSize;
         this.outputSize = outputSize;
 
-        Wf = new double[hiddenSize][inputSize + hiddenSize];
-        Wi = new double[hiddenSize][inputSize + hiddenSize];
-        Wo = new double[hiddenSize][inputSize + hiddenSize];
-        Wc = new double[hiddenSize][inputSize + hiddenSize];
-        Wy = new double[outputSize][hiddenSize];
+        this.combinedSize = inputSize + hiddenSize;
+        this.rowStride = alignedStride(combinedSize);
 
-        bf = new double[hiddenSize];
-        bi = new double[hiddenSize];
-        bo = new double[hiddenSize];
-        bc = new double[hiddenSize];
+        W = new double[GATES * hiddenSize * rowStride];
+        b = new double[GATES * hiddenSize];
+        Wy = new double[outputSize * hiddenSize];
         by = new double[outputSize];
 
         hiddenState = new double[hiddenSize];
         cellState = new double[hiddenSize];
 
-        ft = new double[hiddenSize];
-        it = new double[hiddenSize];
-        ot = new double[hiddenSize];
-        ct_hat = new double[hiddenSize];
-
         Random rand = new Random();
         initializeWeights(rand);
     }
 
+    private LSTMNetwork(int inputSize, int hiddenSize, int outputSize, int rowStride, double[] W, double[] b,
+                        double[] Wy, double[] by, double[] hiddenState, double[] cellState) {
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+        this.combinedSize = inputSize + hiddenSize;
+        this.rowStride = rowStride;
+
+        this.W = W;
+        this.b = b;
+        this.Wy = Wy;
+        this.by = by;
+        this.hiddenState = hiddenState;
+        this.cellState = cellState;
+    }
+
+    private static int alignedStride(int combinedSize) {
+        return (combinedSize + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+    }
+
+    private LSTMNetwork(LSTMNetwork other) {
+        this.inputSize = other.inputSize;
+        this.hiddenSize = other.hiddenSize;
+        this.outputSize = other.outputSize;
+        this.combinedSize = other.combinedSize;
+        this.rowStride = other.rowStride;
+
+        W = other.W.clone();
+        b = other.b.clone();
+        Wy = other.Wy.clone();
+        by = other.by.clone();
+
+        hiddenState = other.hiddenState.clone();
+        cellState = other.cellState.clone();
+    }
+
+    // Deep copy of weights and state
+    public LSTMNetwork copy() {
+        return new LSTMNetwork(this);
+    }
+
     private void initializeWeights(Random rand) {
         for (int i = 0; i < hiddenSize; i++) {
-            for (int j = 0; j < inputSize + hiddenSize; j++) {
-                Wf[i][j] = rand.nextGaussian() * 0.1;
-                Wi[i][j] = rand.nextGaussian() * 0.1;
-                Wo[i][j] = rand.nextGaussian() * 0.1;
-                Wc[i][j] = rand.nextGaussian() * 0.1;
+            for (int j = 0; j < combinedSize; j++) {
+                for (int g = 0; g < GATES; g++) {
+                    W[(g * hiddenSize + i) * rowStride + j] = rand.nextGaussian() * 0.1;
+                }
+            }
+            for (int g = 0; g < GATES; g++) {
+                b[g * hiddenSize + i] = rand.nextGaussian() * 0.1;
             }
-            bf[i] = rand.nextGaussian() * 0.1;
-            bi[i] = rand.nextGaussian() * 0.1;
-            bo[i] = rand.nextGaussian() * 0.1;
-            bc[i] = rand.nextGaussian() * 0.1;
         }
 
         for (int i = 0; i < outputSize; i++) {
             for (int j = 0; j < hiddenSize; j++) {
-                Wy[i][j] = rand.nextGaussian() * 0.1;
+                Wy[i * hiddenSize + j] = rand.nextGaussian() * 0.1;
             }
             by[i] = rand.nextGaussian() * 0.1;
         }
     }
 
+    public LSTMWorkspace newWorkspace() {
+        return new LSTMWorkspace(inputSize, hiddenSize, outputSize);
+    }
+
+    private LSTMWorkspace workspace() {
+        return workspaces.get();
+    }
+
     public double[] forward(double[] input,double[] hiddenState,double[] cellState ) {
+        return forward(input, hiddenState, cellState, workspace()).clone();
+    }
+
+    // Allocation-free forward step: updates hiddenState/cellState in place and returns ws.getOutput()
+    public double[] forward(double[] input, double[] hiddenState, double[] cellState, LSTMWorkspace ws) {
         if (input.length != inputSize) {
             throw new IllegalArgumentException("Input size must match the network input size" +input.length+ " : "+inputSize);
         }
 
-        double[] combined = new double[input.length + hiddenState.length];
-        System.arraycopy(input, 0, combined, 0, input.length);
-        System.arraycopy(hiddenState, 0, combined, input.length, hiddenState.length);
-
-        ft = sigmoid(add(matVecMul(Wf, combined), bf));
-        it = sigmoid(add(matVecMul(Wi, combined), bi));
-        ot = sigmoid(add(matVecMul(Wo, combined), bo));
-        ct_hat = tanh(add(matVecMul(Wc, combined), bc));
-
-        double[] newCellState = new double[cellState.length];
-        for (int i = 0; i < cellState.length; i++) {
-            newCellState[i] = ft[i] * cellState[i] + it[i] * ct_hat[i];
-        }
+        step(input, hiddenState, cellState, ws);
 
-        double[] newHiddenState = new double[hiddenState.length];
-        for (int i = 0; i < hiddenState.length; i++) {
-            newHiddenState[i] = ot[i] * Math.tanh(newCellState[i]);
-        }
+        System.arraycopy(ws.newCellState, 0, cellState, 0, hiddenSize);
+        System.arraycopy(ws.newHiddenState, 0, hiddenState, 0, hiddenSize);
 
-        double[] output = add(matVecMul(Wy, newHiddenState), by);
+        return ws.output;
+    }
 
-        System.arraycopy(newCellState, 0, cellState, 0, cellState.length);
-        System.arraycopy(newHiddenState, 0, hiddenState, 0, hiddenState.length);
+    // Gates, next cell/hidden state and output for one input, all written into the workspace
+    private void step(double[] input, double[] hiddenState, double[] cellState, LSTMWorkspace ws) {
+        step(inputSize, hiddenSize, outputSize, rowStride, W, b, Wy, by, input, hiddenState, cellState, ws);
+    }
 
-        return output;
+    // Shared by the network and its immutable LSTMWeights snapshots; reads the weights, writes only ws
+    static void step(int inputSize, int hiddenSize, int outputSize, int rowStride, double[] W, double[] b,
+                     double[] Wy, double[] by, double[] input, double[] hiddenState, double[] cellState, LSTMWorkspace ws) {
+        double[] combined = ws.combined;
+        System.arraycopy(input, 0, combined, 0, inputSize);
+        System.arraycopy(hiddenState, 0, combined, inputSize, hiddenSize);
+
+        // Fused GEMV over the packed gate weights: all 4 * hiddenSize pre-activations in one pass
+        double[] gates = ws.gates;
+        KERNELS.gemv(W, GATES * hiddenSize, rowStride, inputSize + hiddenSize, b, combined, 0, gates, 0);
+        KERNELS.sigmoid(gates, 0, 3 * hiddenSize);
+        KERNELS.tanh(gates, 3 * hiddenSize, GATES * hiddenSize);
+
+        KERNELS.cellUpdate(gates, 0, cellState, ws.newCellState, ws.newHiddenState, 0, hiddenSize);
+        KERNELS.gemv(Wy, outputSize, hiddenSize, hiddenSize, by, ws.newHiddenState, 0, ws.output, 0);
     }
 
 
     public void clipGradients(double threshold) {
-        for (int i = 0; i < hiddenSize; i++) {
-            for (int j = 0; j < inputSize + hiddenSize; j++) {
-                Wf[i][j] = Math.min(Wf[i][j], threshold);
-                Wi[i][j] = Math.min(Wi[i][j], threshold);
-                Wo[i][j] = Math.min(Wo[i][j], threshold);
-                Wc[i][j] = Math.min(Wc[i][j], threshold);
-            }
-            bf[i] = Math.min(bf[i], threshold);
-            bi[i] = Math.min(bi[i], threshold);
-            bo[i] = Math.min(bo[i], threshold);
-            bc[i] = Math.min(bc[i], threshold);
+        for (int k = 0; k < W.length; k++) {
+            W[k] = Math.min(W[k], threshold);
+        }
+        for (int k = 0; k < b.length; k++) {
+            b[k] = Math.min(b[k], threshold);
         }
 
+        for (int k = 0; k < Wy.length; k++) {
+            Wy[k] = Math.min(Wy[k], threshold);
+        }
         for (int i = 0; i < outputSize; i++) {
-            for (int j = 0; j < hiddenSize; j++) {
-                Wy[i][j] = Math.min(Wy[i][j], threshold);
-            }
             by[i] = Math.min(by[i], threshold);
         }
     }
 
     public void backpropagate(double[] input, double[] target, double learningRate) {
-        double[] combined = new double[input.length + hiddenState.length];
-        System.arraycopy(input, 0, combined, 0, input.length);
-        System.arraycopy(hiddenState, 0, combined, input.length, hiddenState.length);
-
-        double[] ft = sigmoid(add(matVecMul(Wf, combined), bf));
-        double[] it = sigmoid(add(matVecMul(Wi, combined), bi));
-        double[] ot = sigmoid(add(matVecMul(Wo, combined), bo));
-        double[] ct_hat = tanh(add(matVecMul(Wc, combined), bc));
-
-        double[] newCellState = new double[cellState.length];
-        for (int i = 0; i < cellState.length; i++) {
-            newCellState[i] = ft[i] * cellState[i] + it[i] * ct_hat[i];
-        }
-
-        double[] newHiddenState = new double[hiddenState.length];
-        for (int i = 0; i < hiddenState.length; i++) {
-            newHiddenState[i] = ot[i] * Math.tanh(newCellState[i]);
-        }
-
-        double[] output = add(matVecMul(Wy, newHiddenState), by);
+        backpropagate(input, target, learningRate, workspace());
+    }
 
-        double[] dOutput = new double[output.length];
-        for (int i = 0; i < output.length; i++) {
-            dOutput[i] = output[i] - target[i];
-        }
+    // Gradients are applied to the weights as they are produced; no dW matrices are materialized
+    public void backpropagate(double[] input, double[] target, double learningRate, LSTMWorkspace ws) {
+        step(input, hiddenState, cellState, ws);
+        int h = hiddenSize;
 
-        double[][] dWy = new double[Wy.length][Wy[0].length];
-        double[] dby = new double[by.length];
-        for (int i = 0; i < Wy.length; i++) {
-            for (int j = 0; j < Wy[0].length; j++) {
-                dWy[i][j] = dOutput[i] * newHiddenState[j];
-            }
-            dby[i] = dOutput[i];
+        double[] gates = ws.gates;
+        double[] newCellState = ws.newCellState;
+        double[] newHiddenState = ws.newHiddenState;
+        double[] dOutput = ws.dOutput;
+        for (int i = 0; i < outputSize; i++) {
+            dOutput[i] = ws.output[i] - target[i];
         }
 
-        double[] dHiddenState = new double[hiddenSize];
-        for (int i = 0; i < hiddenSize; i++) {
+        // Hidden/cell gradients read Wy before it is updated below
+        double[] dHiddenState = ws.dHiddenState;
+        double[] dCellState = ws.dCellState;
+        for (int i = 0; i < h; i++) {
+            double sum = 0;
             for (int j = 0; j < outputSize; j++) {
-                dHiddenState[i] += dOutput[j] * Wy[j][i];
+                sum += dOutput[j] * Wy[j * h + i];
             }
-            dHiddenState[i] *= ot[i] * (1 - Math.tanh(newCellState[i]) * Math.tanh(newCellState[i]));
+            double ot = gates[2 * h + i];
+            double tanhCell = KERNELS.tanh(newCellState[i]);
+            double dTanh = ot * (1 - tanhCell * tanhCell);
+            dHiddenState[i] = sum * dTanh;
+            dCellState[i] = dHiddenState[i] * dTanh + newCellState[i] * (1 - newCellState[i]);
         }
 
-        double[] dCellState = new double[hiddenSize];
-        for (int i = 0; i < hiddenSize; i++) {
-            dCellState[i] = dHiddenState[i] * ot[i] * (1 - Math.tanh(newCellState[i]) * Math.tanh(newCellState[i]));
-            dCellState[i] += newCellState[i] * (1 - newCellState[i]);
+        for (int i = 0; i < outputSize; i++) {
+            double scale = learningRate * dOutput[i];
+            KERNELS.axpy(-scale, newHiddenState, 0, Wy, i * h, h);
+            by[i] -= scale;
         }
 
-        double[][] dWf = new double[Wf.length][Wf[0].length];
-        double[] dbf = new double[bf.length];
-        for (int i = 0; i < Wf.length; i++) {
-            for (int j = 0; j < Wf[0].length; j++) {
-                dWf[i][j] = dCellState[i] * cellState[i] * ft[i] * (1 - ft[i]) * combined[j];
-            }
-            dbf[i] = dCellState[i] * cellState[i] * ft[i] * (1 - ft[i]);
+        // Pre-activation gradient for every gate row, same layout as the packed gate weights
+        double[] dGates = ws.dGates;
+        for (int i = 0; i < h; i++) {
+            double ft = gates[i];
+            double it = gates[h + i];
+            double ot = gates[2 * h + i];
+            double ctHat = gates[3 * h + i];
+            dGates[i] = dCellState[i] * cellState[i] * ft * (1 - ft);
+            dGates[h + i] = dCellState[i] * ctHat * it * (1 - it);
+            dGates[2 * h + i] = dHiddenState[i] * newHiddenState[i] * ot * (1 - ot);
+            dGates[3 * h + i] = dCellState[i] * it * (1 - ctHat * ctHat);
         }
 
-        double[][] dWi = new double[Wi.length][Wi[0].length];
-        double[] dbi = new double[bi.length];
-        for (int i = 0; i < Wi.length; i++) {
-            for (int j = 0; j < Wi[0].length; j++) {
-                dWi[i][j] = dCellState[i] * ct_hat[i] * it[i] * (1 - it[i]) * combined[j];
-            }
-            dbi[i] = dCellState[i] * ct_hat[i] * it[i] * (1 - it[i]);
+        // Rank-1 update W -= lr * dGates x combined, row by row
+        double[] combined = ws.combined;
+        for (int r = 0; r < dGates.length; r++) {
+            double scale = learningRate * dGates[r];
+            KERNELS.axpy(-scale, combined, 0, W, r * rowStride, combinedSize);
+            b[r] -= scale;
         }
 
-        double[][] dWo = new double[Wo.length][Wo[0].length];
-        double[] dbo = new double[bo.length];
-        for (int i = 0; i < Wo.length; i++) {
-            for (int j = 0; j < Wo[0].length; j++) {
-                dWo[i][j] = dHiddenState[i] * newHiddenState[i] * ot[i] * (1 - ot[i]) * combined[j];
-            }
-            dbo[i] = dHiddenState[i] * newHiddenState[i] * ot[i] * (1 - ot[i]);
-        }
+        clipGradients(clipThreshold);
+    }
 
-        double[][] dWc = new double[Wc.length][Wc[0].length];
-        double[] dbc = new double[bc.length];
-        for (int i = 0; i < Wc.length; i++) {
-            for (int j = 0; j < Wc[0].length; j++) {
-                dWc[i][j] = dCellState[i] * it[i] * (1 - ct_hat[i] * ct_hat[i]) * combined[j];
-            }
-            dbc[i] = dCellState[i] * it[i] * (1 - ct_hat[i] * ct_hat[i]);
-        }
+    public LSTMBatchWorkspace newBatchWorkspace(int batchSize) {
+        return new LSTMBatchWorkspace(batchSize, inputSize, hiddenSize, outputSize, rowStride);
+    }
 
-        for (int i = 0; i < Wf.length; i++) {
-            for (int j = 0; j < Wf[0].length; j++) {
-                Wf[i][j] -= learningRate * dWf[i][j];
-                Wi[i][j] -= learningRate * dWi[i][j];
-                Wo[i][j] -= learningRate * dWo[i][j];
-                Wc[i][j] -= learningRate * dWc[i][j];
-            }
-            bf[i] -= learningRate * dbf[i];
-            bi[i] -= learningRate * dbi[i];
-            bo[i] -= learningRate * dbo[i];
-            bc[i] -= learningRate * dbc[i];
+    // One weight update for the first count slots of the batch, using the mean gradient. Returns the summed squared error.
+    public double backpropagateBatch(LSTMBatchWorkspace ws, int count, double learningRate) {
+        double squaredError = accumulateGradients(ws, count, hiddenState, cellState);
+        update(ws, learningRate / count);
+        return squaredError;
+    }
+
+    // Batched forward and backward pass from the given starting state; adds the summed gradients to the
+    // workspace accumulators without touching the weights. Returns the summed squared error of output 0.
+    double accumulateGradients(LSTMBatchWorkspace ws, int count, double[] hiddenState, double[] cellState) {
+        if (count > ws.capacity) {
+            throw new IllegalArgumentException("Batch of " + count + " exceeds workspace capacity " + ws.capacity);
+        }
+        final int h = hiddenSize;
+        final int g = GATES * h;
+        final int n = combinedSize;
+        final int stride = rowStride;
+        final double[] x = ws.combined;
+        final double[] gates = ws.gates;
+
+        for (int s = 0; s < count; s++) {
+            System.arraycopy(hiddenState, 0, x, s * stride + inputSize, h);
         }
 
-        for (int i = 0; i < Wy.length; i++) {
-            for (int j = 0; j < Wy[0].length; j++) {
-                Wy[i][j] -= learningRate * dWy[i][j];
+        // GEMM: gates[batch][4h] = X[batch][n] * W^T, each weight row reused across the whole batch
+        KERNELS.gemm(W, g, stride, n, b, x, count, gates);
+
+        double squaredError = 0;
+        final double[] dGates = ws.dGates;
+        final double[] gradWy = ws.gradWy;
+        for (int s = 0; s < count; s++) {
+            int gBase = s * g;
+            int hBase = s * h;
+            int oBase = s * outputSize;
+            KERNELS.sigmoid(gates, gBase, gBase + 3 * h);
+            KERNELS.tanh(gates, gBase + 3 * h, gBase + g);
+            KERNELS.cellUpdate(gates, gBase, cellState, ws.newCellState, ws.newHiddenState, hBase, h);
+            KERNELS.gemv(Wy, outputSize, h, h, by, ws.newHiddenState, hBase, ws.output, oBase);
+
+            for (int k = 0; k < outputSize; k++) {
+                double dOut = ws.output[oBase + k] - ws.targets[oBase + k];
+                ws.gradBy[k] += dOut;
+                KERNELS.axpy(dOut, ws.newHiddenState, hBase, gradWy, k * h, h);
+            }
+            double error = ws.targets[oBase] - ws.output[oBase];
+            squaredError += error * error;
+
+            for (int i = 0; i < h; i++) {
+                double sum = 0;
+                for (int k = 0; k < outputSize; k++) {
+                    sum += (ws.output[oBase + k] - ws.targets[oBase + k]) * Wy[k * h + i];
+                }
+                double newCell = ws.newCellState[hBase + i];
+                double ft = gates[gBase + i];
+                double it = gates[gBase + h + i];
+                double ot = gates[gBase + 2 * h + i];
+                double ctHat = gates[gBase + 3 * h + i];
+                double tanhCell = KERNELS.tanh(newCell);
+                double dTanh = ot * (1 - tanhCell * tanhCell);
+                double dHidden = sum * dTanh;
+                double dCell = dHidden * dTanh + newCell * (1 - newCell);
+
+                dGates[gBase + i] = dCell * cellState[i] * ft * (1 - ft);
+                dGates[gBase + h + i] = dCell * ctHat * it * (1 - it);
+                dGates[gBase + 2 * h + i] = dHidden * ws.newHiddenState[hBase + i] * ot * (1 - ot);
+                dGates[gBase + 3 * h + i] = dCell * it * (1 - ctHat * ctHat);
             }
-            by[i] -= learningRate * dby[i];
         }
 
+        // GEMM: gradW[4h][n] += dGates^T[4h][batch] * X[batch][n]
+        KERNELS.gemmTransposeAccumulate(ws.gradW, ws.gradB, g, stride, n, dGates, x, count);
+
+        return squaredError;
+    }
+
+    // Applies the accumulated gradients scaled by scale and clips the weights
+    void update(LSTMBatchWorkspace ws, double scale) {
+        applyGradients(ws, scale);
         clipGradients(clipThreshold);
     }
 
-    public void resetState() {
-        hiddenState = new double[hiddenSize];
-        cellState = new double[hiddenSize];
+    // W -= scale * grad for every accumulator, then clears the accumulators
+    void applyGradients(LSTMBatchWorkspace ws, double scale) {
+        applyGradients(ws.gradW, ws.gradB, ws.gradWy, ws.gradBy, scale);
+        ws.clearGradients();
+    }
+
+    private void applyGradients(double[] gradW, double[] gradB, double[] gradWy, double[] gradBy, double scale) {
+        KERNELS.axpy(-scale, gradW, 0, W, 0, W.length);
+        KERNELS.axpy(-scale, gradB, 0, b, 0, b.length);
+        KERNELS.axpy(-scale, gradWy, 0, Wy, 0, Wy.length);
+        KERNELS.axpy(-scale, gradBy, 0, by, 0, by.length);
     }
 
-    private double[] matVecMul(double[][] matrix, double[] vector) {
-        double[] result = new double[matrix.length];
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < vector.length; j++) {
-                result[i] += matrix[i][j] * vector[j];
+    // checkpointInterval 0 keeps every step's activations; see LSTMSequenceWorkspace
+    public LSTMSequenceWorkspace newSequenceWorkspace(int batchSize, int steps, int checkpointInterval) {
+        return new LSTMSequenceWorkspace(batchSize, steps, checkpointInterval, inputSize, hiddenSize, outputSize, rowStride);
+    }
+
+    // One weight update from truncated BPTT over the first count windows of the workspace, each starting from
+    // zero state, using the mean gradient. Returns the summed squared error of the last step.
+    public double backpropagateSequences(LSTMSequenceWorkspace ws, int count, double learningRate) {
+        double squaredError = accumulateSequenceGradients(ws, count);
+        applyGradients(ws.gradW, ws.gradB, ws.gradWy, ws.gradBy, learningRate / count);
+        ws.clearGradients();
+        clipGradients(clipThreshold);
+        return squaredError;
+    }
+
+    // Forward through every window from zero state, loss on the last step's output, then backward through all
+    // steps with the hidden and cell gradients carried from step to step. Windows are independent samples, so
+    // none starts from the stored state another sequence or an evaluation left behind. Adds the summed
+    // gradients to the workspace accumulators without touching the weights. Returns the summed squared error
+    // of output 0.
+    double accumulateSequenceGradients(LSTMSequenceWorkspace ws, int count) {
+        if (count > ws.capacity) {
+            throw new IllegalArgumentException("Batch of " + count + " exceeds workspace capacity " + ws.capacity);
+        }
+        if (ws.rowStride != rowStride || ws.hiddenSize != hiddenSize || ws.inputSize != inputSize) {
+            throw new IllegalArgumentException("Workspace was made for a network of another shape");
+        }
+        final int h = hiddenSize;
+        final int g = GATES * h;
+        final int n = combinedSize;
+        final int segments = ws.checkpointHidden.length;
+
+        Arrays.fill(ws.checkpointHidden[0], 0, count * h, 0);
+        Arrays.fill(ws.checkpointCell[0], 0, count * h, 0);
+        // Leaves the last segment's activations in the buffers
+        for (int k = 0; k < segments; k++) {
+            forwardSegment(ws, count, k);
+        }
+
+        double squaredError = 0;
+        Arrays.fill(ws.dCell, 0, count * h, 0);
+        for (int s = 0; s < count; s++) {
+            int hBase = s * h;
+            int oBase = s * outputSize;
+            KERNELS.gemv(Wy, outputSize, h, h, by, ws.lastHidden, hBase, ws.output, oBase);
+            Arrays.fill(ws.dHidden, hBase, hBase + h, 0);
+            for (int k = 0; k < outputSize; k++) {
+                double dOut = ws.output[oBase + k] - ws.targets[oBase + k];
+                ws.gradBy[k] += dOut;
+                KERNELS.axpy(dOut, ws.lastHidden, hBase, ws.gradWy, k * h, h);
+                KERNELS.axpy(dOut, Wy, k * h, ws.dHidden, hBase, h);
             }
+            double error = ws.targets[oBase] - ws.output[oBase];
+            squaredError += error * error;
         }
-        return result;
-    }
 
-    private double[] add(double[] vec1, double[] vec2) {
-        double[] result = new double[vec1.length];
-        for (int i = 0; i < vec1.length; i++) {
-            result[i] = vec1[i] + vec2[i];
+        for (int k = segments - 1; k >= 0; k--) {
+            if (k < segments - 1) {
+                forwardSegment(ws, count, k);
+            }
+            int length = Math.min(ws.segment, ws.steps - k * ws.segment);
+            for (int t = length - 1; t >= 0; t--) {
+                double[] gates = ws.gates[t];
+                double[] cells = ws.cells[t];
+                double[] previousCells = t == 0 ? ws.checkpointCell[k] : ws.cells[t - 1];
+                double[] dGates = ws.dGates;
+                for (int s = 0; s < count; s++) {
+                    int gBase = s * g;
+                    int hBase = s * h;
+                    for (int i = 0; i < h; i++) {
+                        double ft = gates[gBase + i];
+                        double it = gates[gBase + h + i];
+                        double ot = gates[gBase + 2 * h + i];
+                        double ctHat = gates[gBase + 3 * h + i];
+                        double tanhCell = KERNELS.tanh(cells[hBase + i]);
+                        double dHidden = ws.dHidden[hBase + i];
+                        double dCell = ws.dCell[hBase + i] + dHidden * ot * (1 - tanhCell * tanhCell);
+
+                        dGates[gBase + i] = dCell * previousCells[hBase + i] * ft * (1 - ft);
+                        dGates[gBase + h + i] = dCell * ctHat * it * (1 - it);
+                        dGates[gBase + 2 * h + i] = dHidden * tanhCell * ot * (1 - ot);
+                        dGates[gBase + 3 * h + i] = dCell * it * (1 - ctHat * ctHat);
+                        ws.dCell[hBase + i] = dCell * ft;
+                    }
+                }
+                KERNELS.gemmTransposeAccumulate(ws.gradW, ws.gradB, g, rowStride, n, dGates, ws.combined[t], count);
+
+                if (k == 0 && t == 0) {
+                    break;
+                }
+                // dh(t-1) = the hidden-state columns of W^T * dGates
+                Arrays.fill(ws.dHiddenPrev, 0, count * h, 0);
+                for (int s = 0; s < count; s++) {
+                    int gBase = s * g;
+                    for (int r = 0; r < g; r++) {
+                        KERNELS.axpy(dGates[gBase + r], W, r * rowStride + inputSize, ws.dHiddenPrev, s * h, h);
+                    }
+                }
+                System.arraycopy(ws.dHiddenPrev, 0, ws.dHidden, 0, count * h);
+            }
         }
-        return result;
+        return squaredError;
     }
 
-    private double[] sigmoid(double[] vec) {
-        double[] result = new double[vec.length];
-        for (int i = 0; i < vec.length; i++) {
-            result[i] = 1.0 / (1.0 + Math.exp(-vec[i]));
+    // Runs segment k from its checkpoint, storing its activations and the state at its end: the next
+    // checkpoint, or lastHidden after the final segment
+    private void forwardSegment(LSTMSequenceWorkspace ws, int count, int k) {
+        final int h = hiddenSize;
+        final int g = GATES * h;
+        final int first = k * ws.segment;
+        final int length = Math.min(ws.segment, ws.steps - first);
+        final boolean last = k == ws.checkpointHidden.length - 1;
+
+        for (int t = 0; t < length; t++) {
+            double[] x = ws.combined[t];
+            double[] gates = ws.gates[t];
+            double[] cells = ws.cells[t];
+            double[] previousCells = t == 0 ? ws.checkpointCell[k] : ws.cells[t - 1];
+            double[] input = ws.inputs[first + t];
+            for (int s = 0; s < count; s++) {
+                System.arraycopy(input, s * inputSize, x, s * rowStride, inputSize);
+                if (t == 0) {
+                    System.arraycopy(ws.checkpointHidden[k], s * h, x, s * rowStride + inputSize, h);
+                }
+            }
+            KERNELS.gemm(W, g, rowStride, combinedSize, b, x, count, gates);
+
+            boolean segmentEnd = t == length - 1;
+            double[] nextHidden = !segmentEnd ? ws.combined[t + 1] : last ? ws.lastHidden : ws.checkpointHidden[k + 1];
+            for (int s = 0; s < count; s++) {
+                int gBase = s * g;
+                int hBase = s * h;
+                int nextBase = !segmentEnd ? s * rowStride + inputSize : hBase;
+                KERNELS.sigmoid(gates, gBase, gBase + 3 * h);
+                KERNELS.tanh(gates, gBase + 3 * h, gBase + g);
+                for (int i = 0; i < h; i++) {
+                    double c = gates[gBase + i] * previousCells[hBase + i] + gates[gBase + h + i] * gates[gBase + 3 * h + i];
+                    cells[hBase + i] = c;
+                    nextHidden[nextBase + i] = gates[gBase + 2 * h + i] * KERNELS.tanh(c);
+                }
+            }
+            if (segmentEnd && !last) {
+                System.arraycopy(cells, 0, ws.checkpointCell[k + 1], 0, count * h);
+            }
         }
-        return result;
     }
 
-    private double[] tanh(double[] vec) {
-        double[] result = new double[vec.length];
-        for (int i = 0; i < vec.length; i++) {
-            result[i] = Math.tanh(vec[i]);
-        }
-        return result;
+    public void resetState() {
+        Arrays.fill(hiddenState, 0);
+        Arrays.fill(cellState, 0);
+    }
+
+    // Immutable copy of the current weights and state for concurrent inference; later training does not affect it
+    public LSTMWeights snapshot() {
+        return new LSTMWeights(inputSize, hiddenSize, outputSize, rowStride, W.clone(), b.clone(), Wy.clone(),
+                by.clone(), hiddenState.clone(), cellState.clone());
+    }
+
+    // Single-precision copy of this network's weights and state
+    public FloatLSTMNetwork toSinglePrecision() {
+        return new FloatLSTMNetwork(inputSize, hiddenSize, outputSize, W, rowStride, b, Wy, by, hiddenState, cellState);
+    }
+
+    // Bytes held by weights and biases
+    public long getWeightBytes() {
+        return 8L * (W.length + b.length + Wy.length + by.length);
     }
 
     public double[] getHiddenState() {
@@ -291,21 +519,55 @@ public class LSTMNetwork implements Serializable {
         return cellState;
     }
 
-    public void saveModel(String filePath) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            oos.writeObject(this);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public void saveModel(String filePath) throws IOException {
+        ModelFile.write(filePath, inputSize, hiddenSize, outputSize, rowStride,
+                W, b, Wy, by, hiddenState, cellState);
     }
 
-    public static LSTMNetwork loadModel(String filePath) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
-            return (LSTMNetwork) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
+    // Returns null if there is no model at filePath yet; a file that exists but is unreadable, from another
+    // dtype or corrupt fails with an IOException instead of silently starting a new model
+    public static LSTMNetwork loadModel(String filePath) throws IOException {
+        if (!new File(filePath).exists()) {
             System.out.println("\u001B[32m Creating Model....\u001B[0m");
             return null;
         }
+        ModelFile file = ModelFile.read(filePath);
+        file.verifyChecksum(filePath);
+        if (file.dtype != ModelFile.FLOAT64) {
+            throw new IOException(filePath + " holds a single-precision model; load it with FloatLSTMNetwork.loadModel");
+        }
+        return new LSTMNetwork(file.inputSize, file.hiddenSize, file.outputSize, file.rowStride,
+                file.readDoubles(ModelFile.W), file.readDoubles(ModelFile.B), file.readDoubles(ModelFile.WY),
+                file.readDoubles(ModelFile.BY), file.readDoubles(ModelFile.HIDDEN_STATE), file.readDoubles(ModelFile.CELL_STATE));
+    }
+
+    // Reads a model Java-serialized by the old saveModel (lstm_model<version>.ser) and packs its per-gate
+    // matrices into the fused layout; saveModel() on the result converts it to the binary model file
+    public static LSTMNetwork loadLegacyModel(String filePath) throws IOException {
+        LegacyModel legacy = LegacyModel.read(filePath);
+        int h = legacy.hiddenSize;
+        int combined = legacy.inputSize + h;
+        int rowStride = alignedStride(combined);
+        double[][][] gates = {legacy.Wf, legacy.Wi, legacy.Wo, legacy.Wc};
+        double[][] biases = {legacy.bf, legacy.bi, legacy.bo, legacy.bc};
+        double[] W = new double[GATES * h * rowStride];
+        double[] b = new double[GATES * h];
+        for (int g = 0; g < GATES; g++) {
+            for (int r = 0; r < h; r++) {
+                System.arraycopy(gates[g][r], 0, W, (g * h + r) * rowStride, combined);
+                b[g * h + r] = biases[g][r];
+            }
+        }
+        double[] Wy = new double[legacy.outputSize * h];
+        for (int i = 0; i < legacy.outputSize; i++) {
+            System.arraycopy(legacy.Wy[i], 0, Wy, i * h, h);
+        }
+        return new LSTMNetwork(legacy.inputSize, h, legacy.outputSize, rowStride, W, b, Wy, legacy.by,
+                legacy.hiddenState, legacy.cellState);
+    }
+
+    public int getInputSize() {
+        return inputSize;
     }
 
     // Get the hidden size
@@ -313,9 +575,13 @@ public class LSTMNetwork implements Serializable {
         return hiddenSize;
     }
 
-    // Get the output weights
+    // Get a copy of the output weights as [outputSize][hiddenSize]
     public double[][] getWy() {
-        return Wy;
+        double[][] rows = new double[outputSize][];
+        for (int i = 0; i < outputSize; i++) {
+            rows[i] = Arrays.copyOfRange(Wy, i * hiddenSize, (i + 1) * hiddenSize);
+        }
+        return rows;
     }
 
     // Get the output biases
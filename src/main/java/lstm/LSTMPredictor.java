@@ -0,0 +1,15 @@
+package lstm;
+
+// Read-only model that many threads can predict on at once. All per-caller data lives in the LSTMState.
+public interface LSTMPredictor {
+    // Fresh state starting from the model's stored hidden/cell state
+    LSTMState newState();
+
+    // Advances state by one step and returns state.getOutput(); only state is written
+    double[] predict(double[] input, LSTMState state);
+
+    int getInputSize();
+
+    // Identifies the weights; cached recurrent state is only valid for the version that produced it
+    long getVersion();
+}
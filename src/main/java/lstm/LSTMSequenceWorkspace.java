@@ -0,0 +1,129 @@
+package lstm;
+
+import java.util.Arrays;
+
+// Buffers for truncated backpropagation through time over a batch of windows of `steps` inputs each, with
+// the loss on the last step's output. All of it is allocated once and reused for every batch.
+//
+// Activations are kept for one segment of checkpointInterval steps at a time. With an interval of at least
+// steps (or 0) the whole window is one segment: one forward pass, activations for every step. A shorter
+// interval keeps only the hidden/cell state at each segment boundary during the forward pass and recomputes
+// a segment's activations just before backpropagating through it, trading one extra forward pass for
+// memory proportional to steps / interval + interval instead of steps.
+// Not thread-safe; give each thread its own.
+public final class LSTMSequenceWorkspace {
+    final int capacity;
+    final int steps;
+    final int segment;
+    final int inputSize;
+    final int hiddenSize;
+    final int outputSize;
+    final int rowStride;
+
+    // [steps][batch * inputSize], the raw inputs, kept so segments can be recomputed
+    final double[][] inputs;
+    // [batch * outputSize], targets of the last step
+    final double[] targets;
+    // Hidden and cell state at the start of each segment: [segments][batch * hiddenSize]
+    final double[][] checkpointHidden;
+    final double[][] checkpointCell;
+
+    // Activations of the current segment, step t of the segment at index t
+    // [segment][batch * rowStride], input followed by the previous hidden state
+    final double[][] combined;
+    // [segment][batch * 4 * hiddenSize]
+    final double[][] gates;
+    // [segment][batch * hiddenSize], cell state after the step
+    final double[][] cells;
+
+    // Last step's hidden state and output
+    final double[] lastHidden;
+    final double[] output;
+
+    // Backward scratch: [batch * hiddenSize] running gradients and [batch * 4 * hiddenSize] gate gradients
+    final double[] dHidden;
+    final double[] dCell;
+    final double[] dHiddenPrev;
+    final double[] dGates;
+
+    final double[] gradW;
+    final double[] gradB;
+    final double[] gradWy;
+    final double[] gradBy;
+
+    LSTMSequenceWorkspace(int capacity, int steps, int checkpointInterval, int inputSize, int hiddenSize, int outputSize,
+                          int rowStride) {
+        if (capacity < 1 || steps < 1) {
+            throw new IllegalArgumentException("Batch size and steps must be positive: " + capacity + ", " + steps);
+        }
+        if (checkpointInterval < 0) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative: " + checkpointInterval);
+        }
+        this.capacity = capacity;
+        this.steps = steps;
+        this.segment = checkpointInterval == 0 ? steps : Math.min(checkpointInterval, steps);
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+        this.rowStride = rowStride;
+
+        int segments = (steps + segment - 1) / segment;
+        int h = capacity * hiddenSize;
+        inputs = new double[steps][capacity * inputSize];
+        targets = new double[capacity * outputSize];
+        checkpointHidden = new double[segments][h];
+        checkpointCell = new double[segments][h];
+
+        combined = new double[segment][capacity * rowStride];
+        gates = new double[segment][capacity * 4 * hiddenSize];
+        cells = new double[segment][h];
+
+        lastHidden = new double[h];
+        output = new double[capacity * outputSize];
+
+        dHidden = new double[h];
+        dCell = new double[h];
+        dHiddenPrev = new double[h];
+        dGates = new double[capacity * 4 * hiddenSize];
+
+        gradW = new double[4 * hiddenSize * rowStride];
+        gradB = new double[4 * hiddenSize];
+        gradWy = new double[outputSize * hiddenSize];
+        gradBy = new double[outputSize];
+    }
+
+    void clearGradients() {
+        Arrays.fill(gradW, 0);
+        Arrays.fill(gradB, 0);
+        Arrays.fill(gradWy, 0);
+        Arrays.fill(gradBy, 0);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    // Copies inputSize values starting at src[srcPos] as step `step` (0 = oldest) of the given slot's window
+    public void setInput(int slot, int step, double[] src, int srcPos) {
+        System.arraycopy(src, srcPos, inputs[step], slot * inputSize, inputSize);
+    }
+
+    // Copies outputSize values starting at src[srcPos] as the target of the slot's last step
+    public void setTargets(int slot, double[] src, int srcPos) {
+        System.arraycopy(src, srcPos, targets, slot * outputSize, outputSize);
+    }
+
+    public double getOutput(int slot, int index) {
+        return output[slot * outputSize + index];
+    }
+
+    // Doubles held by the activation buffers, for comparing checkpoint intervals
+    public long getActivationDoubles() {
+        long perStep = (long) combined[0].length + gates[0].length + cells[0].length;
+        return segment * perStep + 2L * checkpointHidden.length * checkpointHidden[0].length;
+    }
+}
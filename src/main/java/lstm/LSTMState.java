@@ -0,0 +1,41 @@
+package lstm;
+
+import java.util.Arrays;
+
+// Per-caller recurrent state plus the scratch buffers needed to advance it.
+// Confined to one thread at a time; the LSTMPredictor it belongs to can be shared freely.
+public final class LSTMState {
+    final double[] hiddenState;
+    final double[] cellState;
+    final LSTMWorkspace workspace;
+
+    LSTMState(int inputSize, int outputSize, double[] hiddenState, double[] cellState) {
+        this.hiddenState = hiddenState.clone();
+        this.cellState = cellState.clone();
+        this.workspace = new LSTMWorkspace(inputSize, hiddenState.length, outputSize);
+    }
+
+    // Output of the last predict call; overwritten by the next one
+    public double[] getOutput() {
+        return workspace.output;
+    }
+
+    public double[] getHiddenState() {
+        return hiddenState;
+    }
+
+    public double[] getCellState() {
+        return cellState;
+    }
+
+    // Replaces the recurrent state, e.g. with values restored from a cache
+    public void restore(double[] hiddenState, double[] cellState) {
+        System.arraycopy(hiddenState, 0, this.hiddenState, 0, this.hiddenState.length);
+        System.arraycopy(cellState, 0, this.cellState, 0, this.cellState.length);
+    }
+
+    public void reset() {
+        Arrays.fill(hiddenState, 0);
+        Arrays.fill(cellState, 0);
+    }
+}
@@ -2,24 +2,99 @@ package lstm;
 
 import util.CustomChartUtils;
 import util.DataPreprocessor;
+import util.Normalizer;
+import util.SequenceDataset;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// batchSize is the global batch: SYNCHRONOUS applies one update per batchSize samples whatever the thread
+// count, each worker taking batchSize / threads of them, and HOGWILD workers update after batchSize / threads
+// samples of their own shard. With more than one thread the trainer keeps a pool for its whole life; close it.
+public class LSTMTrainer implements AutoCloseable {
+    // How workers combine their gradients when training on more than one thread
+    public enum Strategy {
+        // Workers share each global batch; their gradients are summed in worker order and applied once (deterministic)
+        SYNCHRONOUS,
+        // Workers train on their own shard and write to the shared weights without locking
+        HOGWILD
+    }
 
-public class LSTMTrainer {
     private final LSTMNetwork network;
-    private final double learningRate;
+    private double learningRate;
+    private final int batchSize;
+    private final int threads;
+    private final Strategy strategy;
+    // Samples per worker and step; null executor when training on the caller's thread
+    private final int workerBatch;
+    private final ExecutorService executor;
+    private final Random random = new Random();
+    private Normalizer inputNormalizer;
+    private Normalizer targetNormalizer;
 
     public LSTMTrainer(LSTMNetwork network, double learningRate) {
+        this(network, learningRate, 1);
+    }
+
+    public LSTMTrainer(LSTMNetwork network, double learningRate, int batchSize) {
+        this(network, learningRate, batchSize, 1, Strategy.SYNCHRONOUS);
+    }
+
+    public LSTMTrainer(LSTMNetwork network, double learningRate, int batchSize, int threads, Strategy strategy) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
         this.network = network;
         this.learningRate = learningRate;
+        this.batchSize = batchSize;
+        this.threads = threads;
+        this.strategy = strategy;
+        this.workerBatch = (batchSize + threads - 1) / threads;
+        this.executor = threads == 1 ? null : Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "lstm-trainer-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // For learning rate schedules, so one trainer (and its pool) can serve every epoch
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    // Stops the worker pool; the trainer cannot train on more than one thread afterwards
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
     }
 
     public void train(double[][] inputs, double[][] targets, int epochs) {
-        // Normalize the data
-        double[][] normalizedInputs = DataPreprocessor.normalize(inputs);
-        double[][] normalizedTargets = DataPreprocessor.normalize(targets);
+        // Normalize the data, keeping the statistics so predictions can be scaled the same way
+        inputNormalizer = Normalizer.fit(inputs);
+        targetNormalizer = Normalizer.fit(targets);
+        double[][] normalizedInputs = inputNormalizer.normalize(inputs);
+        double[][] normalizedTargets = targetNormalizer.normalize(targets);
 
         // Split the data into training and testing sets
         double[][][] inputSplits = DataPreprocessor.preprocessData(normalizedInputs, 0.6);
@@ -33,54 +108,264 @@ public class LSTMTrainer {
         List<Double> trainingLoss = new ArrayList<>();
         List<Double> validationLoss = new ArrayList<>();
 
-        for (int epoch = 0; epoch < epochs; epoch++) {
-            double totalError = 0;
+        LSTMWorkspace workspace = network.newWorkspace();
+        int[] order = new int[trainInputs.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
 
+        for (int epoch = 0; epoch < epochs; epoch++) {
             // Shuffle the training data
-            List<Integer> indices = new ArrayList<>();
-            for (int i = 0; i < trainInputs.length; i++) indices.add(i);
-            Collections.shuffle(indices);
-
-            for (int i : indices) {
-                double[] input = trainInputs[i];
-                double[] target = trainTargets[i];
-
-                // Reset state for each sequence
-                network.resetState();
-
-                // Forward pass
-                double[] hiddenState = new double[network.getHiddenSize()];
-                double[] cellState = new double[network.getHiddenSize()];
-                double[] output = network.forward(input, hiddenState, cellState);
-                double error = target[0] - output[0];
-                totalError += error * error;
-
-                // Backpropagation
-                network.backpropagate(input, target, learningRate);
-            }
+            SequenceDataset.shuffle(order, random);
+
+            // Every sample starts from a zero state
+            network.resetState();
+
+            double totalError = trainEpoch(trainInputs, trainTargets, 0, order);
 
             trainingLoss.add(totalError / trainInputs.length);
-            validationLoss.add(validate(testInputs, testTargets));
+            validationLoss.add(validate(testInputs, testTargets, workspace));
             System.out.println("Epoch " + (epoch + 1) + " complete. Training Loss: " + totalError / trainInputs.length);
         }
 
         CustomChartUtils.plotTrainingProgress(trainingLoss, validationLoss);
     }
 
-    private double validate(double[][] inputs, double[][] targets) {
+    // Statistics the last train() call scaled its inputs and targets with; null before training
+    public Normalizer getInputNormalizer() {
+        return inputNormalizer;
+    }
+
+    public Normalizer getTargetNormalizer() {
+        return targetNormalizer;
+    }
+
+    // One pass over inputs in the given order. Targets are read from targets[i] starting at targetOffset,
+    // so input and target may share one row. Returns the summed squared error.
+    public double trainEpoch(double[][] inputs, double[][] targets, int targetOffset, int[] order) {
+        return trainEpoch(inputs, 0, targets, targetOffset, order);
+    }
+
+    // One pass over single-step samples of the dataset; order holds store indexes, as from data.order()
+    public double trainEpoch(SequenceDataset data, int[] order) {
+        if (data.getLookback() != 1) {
+            throw new IllegalArgumentException("Samples of " + data.getLookback() + " steps need sequence training");
+        }
+        if (data.getFeatureCount() != network.getInputSize()) {
+            throw new IllegalArgumentException("Dataset has " + data.getFeatureCount() + " features; the network takes " + network.getInputSize());
+        }
+        return trainEpoch(data.getRows(), data.getFeatureOffset(), data.getRows(), data.getTargetColumn(), order);
+    }
+
+    // One pass over the dataset's lookback windows with truncated backpropagation through time: each window
+    // runs from zero state and is backpropagated through all of its steps, with the loss on
+    // the last step. checkpointInterval 0 keeps every step's activations; a smaller interval keeps state only
+    // every that many steps and recomputes in between. Runs on one thread; returns the summed squared error.
+    public double trainSequenceEpoch(SequenceDataset data, int[] order, int checkpointInterval) {
+        if (data.getFeatureCount() != network.getInputSize()) {
+            throw new IllegalArgumentException("Dataset has " + data.getFeatureCount() + " features; the network takes " + network.getInputSize());
+        }
+        int steps = data.getLookback();
+        int featureOffset = data.getFeatureOffset();
+        int targetColumn = data.getTargetColumn();
+        double[][] rows = data.getRows();
+        LSTMSequenceWorkspace batch = network.newSequenceWorkspace(batchSize, steps, checkpointInterval);
         double totalError = 0;
+        int filled = 0;
+        for (int i : order) {
+            for (int t = 0; t < steps; t++) {
+                batch.setInput(filled, t, rows[i - steps + 1 + t], featureOffset);
+            }
+            batch.setTargets(filled, rows[i], targetColumn);
+            if (++filled == batchSize) {
+                totalError += network.backpropagateSequences(batch, filled, learningRate);
+                filled = 0;
+            }
+        }
+        if (filled > 0) {
+            totalError += network.backpropagateSequences(batch, filled, learningRate);
+        }
+        return totalError;
+    }
+
+    private double trainEpoch(double[][] inputs, int inputOffset, double[][] targets, int targetOffset, int[] order) {
+        if (threads == 1) {
+            return trainSerial(inputs, inputOffset, targets, targetOffset, order);
+        }
+        Worker[] workers = new Worker[threads];
+        for (int k = 0; k < threads; k++) {
+            workers[k] = new Worker(network.newBatchWorkspace(workerBatch), network.getHiddenState(), network.getCellState());
+        }
+        return strategy == Strategy.SYNCHRONOUS
+                ? trainSynchronous(workers, inputs, inputOffset, targets, targetOffset, order)
+                : trainHogwild(workers, inputs, inputOffset, targets, targetOffset, order);
+    }
+
+    private double trainSerial(double[][] inputs, int inputOffset, double[][] targets, int targetOffset, int[] order) {
+        LSTMBatchWorkspace batch = network.newBatchWorkspace(batchSize);
+        double totalError = 0;
+        int filled = 0;
+        for (int i : order) {
+            batch.setInput(filled, inputs[i], inputOffset);
+            batch.setTargets(filled, targets[i], targetOffset);
+            if (++filled == batchSize) {
+                totalError += network.backpropagateBatch(batch, filled, learningRate);
+                filled = 0;
+            }
+        }
+        if (filled > 0) {
+            totalError += network.backpropagateBatch(batch, filled, learningRate);
+        }
+        return totalError;
+    }
+
+    // Each step takes batchSize samples, gives every worker a contiguous slice, and applies the gradient sum
+    // once. The reduction always runs in worker order, so results do not depend on scheduling.
+    private double trainSynchronous(Worker[] workers, double[][] inputs, int inputOffset,
+                                    double[][] targets, int targetOffset, int[] order) {
+        double totalError = 0;
+        int step = batchSize;
+        List<Callable<Double>> tasks = new ArrayList<>(workers.length);
+        for (int pos = 0; pos < order.length; pos += step) {
+            int end = Math.min(pos + step, order.length);
+            tasks.clear();
+            for (int k = 0; k < workers.length; k++) {
+                final Worker worker = workers[k];
+                final int from = Math.min(pos + k * workerBatch, end);
+                final int to = Math.min(from + workerBatch, end);
+                tasks.add(() -> worker.accumulate(inputs, inputOffset, targets, targetOffset, order, from, to));
+            }
+            totalError += sum(invokeAll(tasks));
+
+            LSTMBatchWorkspace total = workers[0].batch;
+            for (int k = 1; k < workers.length; k++) {
+                total.addGradients(workers[k].batch);
+            }
+            network.update(total, learningRate / (end - pos));
+        }
+        return totalError;
+    }
+
+    // Each worker owns a contiguous shard of the epoch and updates the shared weights after every batch
+    private double trainHogwild(Worker[] workers, double[][] inputs, int inputOffset,
+                                double[][] targets, int targetOffset, int[] order) {
+        int shard = (order.length + workers.length - 1) / workers.length;
+        List<Callable<Double>> tasks = new ArrayList<>(workers.length);
+        for (int k = 0; k < workers.length; k++) {
+            final Worker worker = workers[k];
+            final int from = Math.min(k * shard, order.length);
+            final int to = Math.min(from + shard, order.length);
+            tasks.add(() -> {
+                double error = 0;
+                for (int pos = from; pos < to; pos += workerBatch) {
+                    int end = Math.min(pos + workerBatch, to);
+                    error += worker.accumulate(inputs, inputOffset, targets, targetOffset, order, pos, end);
+                    network.update(worker.batch, learningRate / (end - pos));
+                }
+                return error;
+            });
+        }
+        return sum(invokeAll(tasks));
+    }
+
+    // Times one epoch on a copy of the network for 1, 2, 4, ... up to maxThreads threads and prints
+    // throughput, speedup and parallel efficiency (speedup / threads) for this trainer's strategy
+    public void reportScaling(double[][] inputs, double[][] targets, int targetOffset, int maxThreads) {
+        int[] order = new int[inputs.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        reportScaling(order.length, maxThreads, trainer -> trainer.trainEpoch(inputs, targets, targetOffset, order));
+    }
+
+    // The same report for single-step samples of a dataset
+    public void reportScaling(SequenceDataset data, int maxThreads) {
+        int[] order = data.order();
+        reportScaling(order.length, maxThreads, trainer -> trainer.trainEpoch(data, order));
+    }
+
+    private void reportScaling(int samples, int maxThreads, Consumer<LSTMTrainer> epoch) {
+        double baseMillis = 0;
+        for (int n = 1; ; n = Math.min(n * 2, maxThreads)) {
+            double millis;
+            try (LSTMTrainer trainer = new LSTMTrainer(network.copy(), learningRate, batchSize, n, strategy)) {
+                long start = System.nanoTime();
+                epoch.accept(trainer);
+                millis = (System.nanoTime() - start) / 1e6;
+            }
+            if (n == 1) {
+                baseMillis = millis;
+            }
+            double speedup = baseMillis / millis;
+            System.out.printf("%s threads=%d epoch=%.1f ms samples/s=%.0f speedup=%.2fx efficiency=%.0f%%%n",
+                    strategy, n, millis, samples / (millis / 1000), speedup, 100 * speedup / n);
+            if (n >= maxThreads) {
+                break;
+            }
+        }
+    }
+
+    private double validate(double[][] inputs, double[][] targets, LSTMWorkspace workspace) {
+        double totalError = 0;
+        double[] hiddenState = new double[network.getHiddenSize()];
+        double[] cellState = new double[network.getHiddenSize()];
 
         for (int i = 0; i < inputs.length; i++) {
             double[] input = inputs[i];
             double[] target = targets[i];
-            double[] hiddenState = new double[network.getHiddenSize()];
-            double[] cellState = new double[network.getHiddenSize()];
+            Arrays.fill(hiddenState, 0);
+            Arrays.fill(cellState, 0);
 
-            double[] output = network.forward(input, hiddenState, cellState);
+            double[] output = network.forward(input, hiddenState, cellState, workspace);
             double error = target[0] - output[0];
             totalError += error * error;
         }
 
         return totalError / inputs.length;
     }
+
+
+    private List<Future<Double>> invokeAll(List<Callable<Double>> tasks) {
+        try {
+            return executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training interrupted", e);
+        }
+    }
+
+    private static double sum(List<Future<Double>> results) {
+        double total = 0;
+        for (Future<Double> result : results) {
+            try {
+                total += result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Training interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Training worker failed", e.getCause());
+            }
+        }
+        return total;
+    }
+
+    // Per-thread batch buffers, gradient accumulators and starting state
+    private final class Worker {
+        final LSTMBatchWorkspace batch;
+        final double[] hiddenState;
+        final double[] cellState;
+
+        Worker(LSTMBatchWorkspace batch, double[] hiddenState, double[] cellState) {
+            this.batch = batch;
+            this.hiddenState = hiddenState.clone();
+            this.cellState = cellState.clone();
+        }
+
+        double accumulate(double[][] inputs, int inputOffset, double[][] targets, int targetOffset, int[] order, int from, int to) {
+            int filled = 0;
+            for (int pos = from; pos < to; pos++) {
+                int i = order[pos];
+                batch.setInput(filled, inputs[i], inputOffset);
+                batch.setTargets(filled, targets[i], targetOffset);
+                filled++;
+            }
+            return filled == 0 ? 0 : network.accumulateGradients(batch, filled, hiddenState, cellState);
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package lstm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+// Immutable snapshot of an LSTMNetwork. The arrays are private copies that are never written after
+// construction, so any number of threads can predict on one instance without locking.
+public final class LSTMWeights implements LSTMPredictor {
+    private static final Kernels KERNELS = Kernels.active();
+
+    private final int inputSize;
+    private final int hiddenSize;
+    private final int outputSize;
+    private final int rowStride;
+    private final double[] W;
+    private final double[] b;
+    private final double[] Wy;
+    private final double[] by;
+    private final double[] hiddenState;
+    private final double[] cellState;
+    private final long version;
+
+    LSTMWeights(int inputSize, int hiddenSize, int outputSize, int rowStride, double[] W, double[] b,
+                double[] Wy, double[] by, double[] hiddenState, double[] cellState) {
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+        this.rowStride = rowStride;
+        this.W = W;
+        this.b = b;
+        this.Wy = Wy;
+        this.by = by;
+        this.hiddenState = hiddenState;
+        this.cellState = cellState;
+        this.version = checksum(W, b, Wy, by);
+    }
+
+    private static long checksum(double[]... blocks) {
+        CRC32 crc = new CRC32();
+        for (double[] block : blocks) {
+            ByteBuffer bytes = ByteBuffer.allocate(block.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asDoubleBuffer().put(block);
+            crc.update(bytes.array());
+        }
+        return crc.getValue();
+    }
+
+    @Override
+    public LSTMState newState() {
+        return new LSTMState(inputSize, outputSize, hiddenState, cellState);
+    }
+
+    @Override
+    public double[] predict(double[] input, LSTMState state) {
+        if (input.length != inputSize) {
+            throw new IllegalArgumentException("Input size must match the network input size" + input.length + " : " + inputSize);
+        }
+        LSTMWorkspace ws = state.workspace;
+        LSTMNetwork.step(inputSize, hiddenSize, outputSize, rowStride, W, b, Wy, by, input, state.hiddenState, state.cellState, ws);
+        System.arraycopy(ws.newCellState, 0, state.cellState, 0, hiddenSize);
+        System.arraycopy(ws.newHiddenState, 0, state.hiddenState, 0, hiddenSize);
+        return ws.output;
+    }
+
+    // Buffers for predictBatch; one per thread
+    public LSTMBatchWorkspace newBatchWorkspace(int capacity) {
+        return new LSTMBatchWorkspace(capacity, inputSize, hiddenSize, outputSize, rowStride);
+    }
+
+    // Advances count independent sequences by one step with a single GEMM over the gate weights.
+    // Slot s reads inputs[s] and updates states[s]; afterwards states[s].getOutput() holds its result.
+    public void predictBatch(double[][] inputs, LSTMState[] states, int count, LSTMBatchWorkspace ws) {
+        if (count > ws.capacity) {
+            throw new IllegalArgumentException("Batch of " + count + " exceeds workspace capacity " + ws.capacity);
+        }
+        final int h = hiddenSize;
+        final int g = 4 * h;
+        final double[] x = ws.combined;
+        for (int s = 0; s < count; s++) {
+            if (inputs[s].length != inputSize) {
+                throw new IllegalArgumentException("Input size must match the network input size" + inputs[s].length + " : " + inputSize);
+            }
+            System.arraycopy(inputs[s], 0, x, s * rowStride, inputSize);
+            System.arraycopy(states[s].hiddenState, 0, x, s * rowStride + inputSize, h);
+        }
+
+        final double[] gates = ws.gates;
+        KERNELS.gemm(W, g, rowStride, inputSize + h, b, x, count, gates);
+
+        for (int s = 0; s < count; s++) {
+            LSTMState state = states[s];
+            int gBase = s * g;
+            int hBase = s * h;
+            KERNELS.sigmoid(gates, gBase, gBase + 3 * h);
+            KERNELS.tanh(gates, gBase + 3 * h, gBase + g);
+            KERNELS.cellUpdate(gates, gBase, state.cellState, ws.newCellState, ws.newHiddenState, hBase, h);
+            KERNELS.gemv(Wy, outputSize, h, h, by, ws.newHiddenState, hBase, state.workspace.output, 0);
+            System.arraycopy(ws.newCellState, hBase, state.cellState, 0, h);
+            System.arraycopy(ws.newHiddenState, hBase, state.hiddenState, 0, h);
+        }
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    // CRC32 of the weights and biases
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    public int getHiddenSize() {
+        return hiddenSize;
+    }
+}
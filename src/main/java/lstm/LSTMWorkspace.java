@@ -0,0 +1,37 @@
+package lstm;
+
+// Scratch buffers for one forward/backward step, sized once for a network and reused for every sample.
+// A workspace is not thread-safe; give each thread its own.
+public final class LSTMWorkspace {
+    final double[] combined;
+    final double[] gates;
+    final double[] newCellState;
+    final double[] newHiddenState;
+    final double[] output;
+    final double[] dOutput;
+    final double[] dHiddenState;
+    final double[] dCellState;
+    final double[] dGates;
+    // NormalizedPredictor's scaled input and its output in target units
+    final double[] scaledInput;
+    final double[] targetOutput;
+
+    LSTMWorkspace(int inputSize, int hiddenSize, int outputSize) {
+        combined = new double[inputSize + hiddenSize];
+        gates = new double[4 * hiddenSize];
+        newCellState = new double[hiddenSize];
+        newHiddenState = new double[hiddenSize];
+        output = new double[outputSize];
+        dOutput = new double[outputSize];
+        dHiddenState = new double[hiddenSize];
+        dCellState = new double[hiddenSize];
+        dGates = new double[4 * hiddenSize];
+        scaledInput = new double[inputSize];
+        targetOutput = new double[outputSize];
+    }
+
+    // Output of the last forward step; overwritten by the next one
+    public double[] getOutput() {
+        return output;
+    }
+}
@@ -0,0 +1,128 @@
+package lstm;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+
+// Field-for-field mirror of the Java-serialized LSTMNetwork that lstm_model<version>.ser files hold, from
+// before the binary model file. read() substitutes this class for the stream's lstm.LSTMNetwork descriptor
+// after checking that the two describe the same fields, and refuses every other class in the stream.
+// LSTMNetwork.loadLegacyModel() packs the per-gate matrices into the fused layout.
+final class LegacyModel implements Serializable {
+    private static final long serialVersionUID = 862793454345782200L;
+    private static final String STREAM_CLASS = "lstm.LSTMNetwork";
+
+    int inputSize;
+    int hiddenSize;
+    int outputSize;
+
+    double[][] Wf;
+    double[][] Wi;
+    double[][] Wo;
+    double[][] Wc;
+    double[][] Wy;
+    double[] bf;
+    double[] bi;
+    double[] bo;
+    double[] bc;
+    double[] by;
+
+    double[] hiddenState;
+    double[] cellState;
+
+    // Last forward pass's gate activations; serialized but not needed
+    double[] ft;
+    double[] it;
+    double[] ot;
+    double[] ct_hat;
+
+    double clipThreshold;
+
+    private LegacyModel() {
+    }
+
+    static LegacyModel read(String filePath) throws IOException {
+        ObjectStreamClass local = ObjectStreamClass.lookup(LegacyModel.class);
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filePath))) {
+            @Override
+            protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+                ObjectStreamClass stream = super.readClassDescriptor();
+                if (!STREAM_CLASS.equals(stream.getName())) {
+                    return stream;
+                }
+                if (stream.getSerialVersionUID() != serialVersionUID || !sameFields(stream, local)) {
+                    throw new InvalidClassException(STREAM_CLASS, "not the layout of a legacy model file");
+                }
+                return local;
+            }
+
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                String name = desc.getName();
+                if (!name.equals(LegacyModel.class.getName()) && !name.equals("[D") && !name.equals("[[D")) {
+                    throw new InvalidClassException(name, "unexpected class in a legacy model file");
+                }
+                return super.resolveClass(desc);
+            }
+        }) {
+            Object model = in.readObject();
+            if (!(model instanceof LegacyModel)) {
+                throw new IOException(filePath + " does not hold a legacy LSTM model");
+            }
+            LegacyModel legacy = (LegacyModel) model;
+            legacy.check(filePath);
+            return legacy;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(filePath + " does not hold a legacy LSTM model", e);
+        }
+    }
+
+    private static boolean sameFields(ObjectStreamClass a, ObjectStreamClass b) {
+        ObjectStreamField[] x = a.getFields();
+        ObjectStreamField[] y = b.getFields();
+        if (x.length != y.length) {
+            return false;
+        }
+        for (int i = 0; i < x.length; i++) {
+            if (!x[i].getName().equals(y[i].getName()) || x[i].getTypeCode() != y[i].getTypeCode()
+                    || (x[i].getTypeString() != null && !x[i].getTypeString().equals(y[i].getTypeString()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void check(String filePath) throws IOException {
+        int combined = inputSize + hiddenSize;
+        boolean valid = inputSize > 0 && hiddenSize > 0 && outputSize > 0
+                && matrix(Wf, hiddenSize, combined) && matrix(Wi, hiddenSize, combined)
+                && matrix(Wo, hiddenSize, combined) && matrix(Wc, hiddenSize, combined)
+                && matrix(Wy, outputSize, hiddenSize)
+                && vector(bf, hiddenSize) && vector(bi, hiddenSize) && vector(bo, hiddenSize) && vector(bc, hiddenSize)
+                && vector(by, outputSize) && vector(hiddenState, hiddenSize) && vector(cellState, hiddenSize);
+        if (!valid) {
+            throw new IOException(filePath + " has inconsistent legacy model dimensions");
+        }
+    }
+
+    private static boolean matrix(double[][] m, int rows, int columns) {
+        if (m == null || m.length != rows) {
+            return false;
+        }
+        for (double[] row : m) {
+            if (!vector(row, columns)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean vector(double[] v, int length) {
+        return v != null && v.length == length;
+    }
+}
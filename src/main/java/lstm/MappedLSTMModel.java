@@ -0,0 +1,136 @@
+package lstm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+// Inference-only view of a model file whose weights stay in the memory-mapped file instead of the heap.
+// Opening costs the same regardless of model size; pages are faulted in on first use.
+// The weights are read-only, so one instance can serve many threads, each with its own workspace and state.
+public final class MappedLSTMModel implements LSTMPredictor {
+    private static final Kernels KERNELS = Kernels.active();
+
+    private final String filePath;
+    private final ModelFile file;
+    private final int inputSize;
+    private final int hiddenSize;
+    private final int outputSize;
+    private final int rowStride;
+
+    // Exactly one of each pair is set, depending on the file's dtype
+    private final DoubleBuffer W64;
+    private final DoubleBuffer Wy64;
+    private final FloatBuffer W32;
+    private final FloatBuffer Wy32;
+    private final double[] b;
+    private final double[] by;
+
+    private MappedLSTMModel(String filePath, ModelFile file) {
+        this.filePath = filePath;
+        this.file = file;
+        this.inputSize = file.inputSize;
+        this.hiddenSize = file.hiddenSize;
+        this.outputSize = file.outputSize;
+        this.rowStride = file.rowStride;
+
+        ByteBuffer w = file.block(ModelFile.W);
+        ByteBuffer wy = file.block(ModelFile.WY);
+        boolean doublePrecision = file.dtype == ModelFile.FLOAT64;
+        W64 = doublePrecision ? w.asDoubleBuffer() : null;
+        Wy64 = doublePrecision ? wy.asDoubleBuffer() : null;
+        W32 = doublePrecision ? null : w.asFloatBuffer();
+        Wy32 = doublePrecision ? null : wy.asFloatBuffer();
+        // Biases are tiny; keeping them on the heap lets the shared kernels add them
+        b = file.readDoubles(ModelFile.B);
+        by = file.readDoubles(ModelFile.BY);
+    }
+
+    // Maps the model without reading its weights; call verify() to check the payload checksum
+    public static MappedLSTMModel open(String filePath) throws IOException {
+        return new MappedLSTMModel(filePath, ModelFile.open(filePath));
+    }
+
+    public void verify() throws IOException {
+        file.verifyChecksum(filePath);
+    }
+
+    public LSTMWorkspace newWorkspace() {
+        return new LSTMWorkspace(inputSize, hiddenSize, outputSize);
+    }
+
+    // Same step as LSTMNetwork.forward: updates hiddenState/cellState in place and returns ws.getOutput()
+    public double[] forward(double[] input, double[] hiddenState, double[] cellState, LSTMWorkspace ws) {
+        if (input.length != inputSize) {
+            throw new IllegalArgumentException("Input size must match the network input size" + input.length + " : " + inputSize);
+        }
+        int h = hiddenSize;
+        double[] combined = ws.combined;
+        System.arraycopy(input, 0, combined, 0, inputSize);
+        System.arraycopy(hiddenState, 0, combined, inputSize, h);
+
+        double[] gates = ws.gates;
+        gemv(4 * h, rowStride, inputSize + h, b, combined, gates, true);
+        KERNELS.sigmoid(gates, 0, 3 * h);
+        KERNELS.tanh(gates, 3 * h, 4 * h);
+        KERNELS.cellUpdate(gates, 0, cellState, ws.newCellState, ws.newHiddenState, 0, h);
+        gemv(outputSize, h, h, by, ws.newHiddenState, ws.output, false);
+
+        System.arraycopy(ws.newCellState, 0, cellState, 0, h);
+        System.arraycopy(ws.newHiddenState, 0, hiddenState, 0, h);
+        return ws.output;
+    }
+
+    private void gemv(int rows, int stride, int n, double[] bias, double[] x, double[] out, boolean gateWeights) {
+        DoubleBuffer w64 = gateWeights ? W64 : Wy64;
+        FloatBuffer w32 = gateWeights ? W32 : Wy32;
+        for (int r = 0; r < rows; r++) {
+            int base = r * stride;
+            double sum = 0;
+            if (w64 != null) {
+                for (int j = 0; j < n; j++) {
+                    sum += w64.get(base + j) * x[j];
+                }
+            } else {
+                for (int j = 0; j < n; j++) {
+                    sum += w32.get(base + j) * x[j];
+                }
+            }
+            out[r] = sum + bias[r];
+        }
+    }
+
+    @Override
+    public LSTMState newState() {
+        return new LSTMState(inputSize, outputSize, getHiddenState(), getCellState());
+    }
+
+    @Override
+    public double[] predict(double[] input, LSTMState state) {
+        return forward(input, state.hiddenState, state.cellState, state.workspace);
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    // The file's payload checksum
+    @Override
+    public long getVersion() {
+        return file.checksum;
+    }
+
+    public int getHiddenSize() {
+        return hiddenSize;
+    }
+
+    // Heap copy of the stored recurrent state
+    public double[] getHiddenState() {
+        return file.readDoubles(ModelFile.HIDDEN_STATE);
+    }
+
+    public double[] getCellState() {
+        return file.readDoubles(ModelFile.CELL_STATE);
+    }
+}
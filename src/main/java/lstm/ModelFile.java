@@ -0,0 +1,259 @@
+package lstm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Versioned binary model file. A 64-byte little-endian header
+//   0 magic "LSTM" | 4 version | 8 dtype | 12 inputSize | 16 hiddenSize | 20 outputSize | 24 rowStride
+//   32 payload bytes (long) | 40 CRC32 of payload (long) | 48..63 reserved
+// is followed by flat little-endian blocks W, b, Wy, by, hiddenState, cellState in the header's dtype.
+// Files are written through a FileChannel to a temporary file and moved into place, never through a mapping,
+// so replacing a model this process (or another) still has mapped only swaps the directory entry. read() copies
+// a file onto the heap for networks that will be trained and saved again; open() maps it for inference.
+final class ModelFile {
+    static final int MAGIC = 0x4D54534C;
+    static final int VERSION = 1;
+    static final int FLOAT64 = 1;
+    static final int FLOAT32 = 2;
+    static final int HEADER_BYTES = 64;
+
+    // Payload block indices
+    static final int W = 0;
+    static final int B = 1;
+    static final int WY = 2;
+    static final int BY = 3;
+    static final int HIDDEN_STATE = 4;
+    static final int CELL_STATE = 5;
+
+    final int dtype;
+    final int inputSize;
+    final int hiddenSize;
+    final int outputSize;
+    final int rowStride;
+    final long checksum;
+    // Read-only little-endian view of the payload, independent position per caller via duplicate()
+    private final ByteBuffer payload;
+
+    private ModelFile(int dtype, int inputSize, int hiddenSize, int outputSize, int rowStride, long checksum, ByteBuffer payload) {
+        this.dtype = dtype;
+        this.inputSize = inputSize;
+        this.hiddenSize = hiddenSize;
+        this.outputSize = outputSize;
+        this.rowStride = rowStride;
+        this.checksum = checksum;
+        this.payload = payload;
+    }
+
+    static int elementBytes(int dtype) {
+        return dtype == FLOAT64 ? Double.BYTES : Float.BYTES;
+    }
+
+    // Element counts of the payload blocks in file order
+    static int[] blockLengths(int inputSize, int hiddenSize, int outputSize, int rowStride) {
+        return new int[]{4 * hiddenSize * rowStride, 4 * hiddenSize, outputSize * hiddenSize, outputSize, hiddenSize, hiddenSize};
+    }
+
+    static void write(String filePath, int inputSize, int hiddenSize, int outputSize, int rowStride, double[]... blocks) throws IOException {
+        int[] lengths = blockLengths(inputSize, hiddenSize, outputSize, rowStride);
+        ByteBuffer buffer = newBuffer(FLOAT64, lengths, blocks.length);
+        for (int i = 0; i < blocks.length; i++) {
+            checkLength(blocks[i].length, lengths[i]);
+            buffer.asDoubleBuffer().put(blocks[i]);
+            buffer.position(buffer.position() + blocks[i].length * Double.BYTES);
+        }
+        writeFile(filePath, buffer, FLOAT64, inputSize, hiddenSize, outputSize, rowStride);
+    }
+
+    static void write(String filePath, int inputSize, int hiddenSize, int outputSize, int rowStride, float[]... blocks) throws IOException {
+        int[] lengths = blockLengths(inputSize, hiddenSize, outputSize, rowStride);
+        ByteBuffer buffer = newBuffer(FLOAT32, lengths, blocks.length);
+        for (int i = 0; i < blocks.length; i++) {
+            checkLength(blocks[i].length, lengths[i]);
+            buffer.asFloatBuffer().put(blocks[i]);
+            buffer.position(buffer.position() + blocks[i].length * Float.BYTES);
+        }
+        writeFile(filePath, buffer, FLOAT32, inputSize, hiddenSize, outputSize, rowStride);
+    }
+
+    // Heap buffer for the whole file, positioned at the start of the payload
+    private static ByteBuffer newBuffer(int dtype, int[] lengths, int blockCount) throws IOException {
+        if (blockCount != lengths.length) {
+            throw new IOException("Model has " + blockCount + " blocks, expected " + lengths.length);
+        }
+        long payloadBytes = 0;
+        for (int length : lengths) {
+            payloadBytes += (long) length * elementBytes(dtype);
+        }
+        if (HEADER_BYTES + payloadBytes > Integer.MAX_VALUE) {
+            throw new IOException("Model payload of " + payloadBytes + " bytes is too large for one file");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (HEADER_BYTES + payloadBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(HEADER_BYTES);
+        return buffer;
+    }
+
+    // Fills in the header, writes the buffer to a temporary file and moves it over filePath
+    private static void writeFile(String filePath, ByteBuffer buffer, int dtype, int inputSize, int hiddenSize, int outputSize, int rowStride) throws IOException {
+        long payloadBytes = buffer.capacity() - HEADER_BYTES;
+        ByteBuffer payloadView = buffer.duplicate();
+        payloadView.position(HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(payloadView);
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, dtype);
+        buffer.putInt(12, inputSize);
+        buffer.putInt(16, hiddenSize);
+        buffer.putInt(20, outputSize);
+        buffer.putInt(24, rowStride);
+        buffer.putLong(32, payloadBytes);
+        buffer.putLong(40, crc.getValue());
+        buffer.clear();
+
+        Path target = Paths.get(filePath).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void checkLength(int actual, int expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Model block has " + actual + " elements, expected " + expected);
+        }
+    }
+
+    // Maps the file and validates the header; the payload is not read until used. The mapping lives as long
+    // as the returned object, so use read() for a model that will be saved back over the same path.
+    static ModelFile open(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = checkSize(filePath, channel.size());
+            return parse(filePath, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    // Reads the whole file onto the heap and validates the header; nothing stays mapped
+    static ModelFile read(String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long size = checkSize(filePath, channel.size());
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(filePath + " is too large to read onto the heap");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException(filePath + " was truncated while being read");
+                }
+            }
+            buffer.flip();
+            return parse(filePath, buffer);
+        }
+    }
+
+    private static long checkSize(String filePath, long size) throws IOException {
+        if (size < HEADER_BYTES) {
+            throw new IOException(filePath + " is too small to be a model file");
+        }
+        return size;
+    }
+
+    private static ModelFile parse(String filePath, ByteBuffer buffer) throws IOException {
+        long size = buffer.limit();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(filePath + " is not an LSTM model file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException(filePath + " has unsupported model file version " + version);
+        }
+        int dtype = buffer.getInt(8);
+        if (dtype != FLOAT64 && dtype != FLOAT32) {
+            throw new IOException(filePath + " has unknown dtype " + dtype);
+        }
+        int inputSize = buffer.getInt(12);
+        int hiddenSize = buffer.getInt(16);
+        int outputSize = buffer.getInt(20);
+        int rowStride = buffer.getInt(24);
+        long payloadBytes = buffer.getLong(32);
+        long checksum = buffer.getLong(40);
+
+        long expectedBytes = 0;
+        for (int length : blockLengths(inputSize, hiddenSize, outputSize, rowStride)) {
+            expectedBytes += (long) length * elementBytes(dtype);
+        }
+        if (inputSize <= 0 || hiddenSize <= 0 || outputSize <= 0 || rowStride < inputSize + hiddenSize
+                || payloadBytes != expectedBytes || size != HEADER_BYTES + payloadBytes) {
+            throw new IOException(filePath + " has an inconsistent header or is truncated");
+        }
+
+        buffer.position(HEADER_BYTES);
+        ByteBuffer payload = buffer.slice().asReadOnlyBuffer();
+        return new ModelFile(dtype, inputSize, hiddenSize, outputSize, rowStride, checksum, payload);
+    }
+
+    void verifyChecksum(String filePath) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if (crc.getValue() != checksum) {
+            throw new IOException(filePath + " failed its checksum; the model file is corrupt");
+        }
+    }
+
+    // Little-endian read-only view of one payload block
+    ByteBuffer block(int index) {
+        int[] lengths = blockLengths(inputSize, hiddenSize, outputSize, rowStride);
+        long offset = 0;
+        for (int i = 0; i < index; i++) {
+            offset += (long) lengths[i] * elementBytes(dtype);
+        }
+        ByteBuffer view = payload.duplicate();
+        view.position((int) offset);
+        view.limit((int) (offset + (long) lengths[index] * elementBytes(dtype)));
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    double[] readDoubles(int index) {
+        int[] lengths = blockLengths(inputSize, hiddenSize, outputSize, rowStride);
+        double[] values = new double[lengths[index]];
+        if (dtype == FLOAT64) {
+            block(index).asDoubleBuffer().get(values);
+        } else {
+            FloatBuffer floats = block(index).asFloatBuffer();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = floats.get(i);
+            }
+        }
+        return values;
+    }
+
+    float[] readFloats(int index) {
+        int[] lengths = blockLengths(inputSize, hiddenSize, outputSize, rowStride);
+        float[] values = new float[lengths[index]];
+        if (dtype == FLOAT32) {
+            block(index).asFloatBuffer().get(values);
+        } else {
+            DoubleBuffer doubles = block(index).asDoubleBuffer();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (float) doubles.get(i);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,70 @@
+package lstm;
+
+import util.Normalizer;
+
+// A model trained on normalized rows, used on raw ones: inputs are scaled with the training statistics
+// before each step and the output is mapped back to the target column's units. The statistics are copied
+// at construction, so later changes to the Normalizer do not affect predictions.
+public class NormalizedPredictor implements LSTMPredictor {
+    private final LSTMPredictor model;
+    private final double[] inputMean;
+    private final double[] inputScale;
+    private final double targetMean;
+    private final double targetStdDev;
+    private final long version;
+
+    // targetColumn is the normalizer column the model's output was trained against
+    public NormalizedPredictor(LSTMPredictor model, Normalizer normalizer, int targetColumn) {
+        int inputSize = model.getInputSize();
+        if (normalizer.getColumns() < inputSize || targetColumn >= normalizer.getColumns()) {
+            throw new IllegalArgumentException("Normalizer has " + normalizer.getColumns() + " columns; the model needs "
+                    + inputSize + " inputs and target column " + targetColumn);
+        }
+        this.model = model;
+        this.inputMean = new double[inputSize];
+        this.inputScale = new double[inputSize];
+        long hash = model.getVersion();
+        for (int j = 0; j < inputSize; j++) {
+            double std = normalizer.getStdDev(j);
+            inputMean[j] = normalizer.getMean(j);
+            inputScale[j] = std == 0 ? 0 : 1 / std;
+            hash = 31 * hash + Double.doubleToLongBits(inputMean[j]);
+            hash = 31 * hash + Double.doubleToLongBits(std);
+        }
+        this.targetMean = normalizer.getMean(targetColumn);
+        this.targetStdDev = normalizer.getStdDev(targetColumn);
+        // Cached recurrent state depends on the scaling as much as on the weights
+        this.version = 31 * (31 * hash + Double.doubleToLongBits(targetMean)) + Double.doubleToLongBits(targetStdDev);
+    }
+
+    @Override
+    public LSTMState newState() {
+        return model.newState();
+    }
+
+    // Returns the output in target units, in a buffer of the state that the next call overwrites;
+    // state.getOutput() still holds the normalized output
+    @Override
+    public double[] predict(double[] input, LSTMState state) {
+        double[] scaled = state.workspace.scaledInput;
+        for (int j = 0; j < inputMean.length; j++) {
+            scaled[j] = (input[j] - inputMean[j]) * inputScale[j];
+        }
+        double[] output = model.predict(scaled, state);
+        double[] result = state.workspace.targetOutput;
+        for (int k = 0; k < output.length; k++) {
+            result[k] = output[k] * targetStdDev + targetMean;
+        }
+        return result;
+    }
+
+    @Override
+    public int getInputSize() {
+        return model.getInputSize();
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,87 @@
+package lstm;
+
+// Side-by-side check of a single-precision model against the double model it was converted from:
+// prediction error, weight footprint and per-sample forward latency
+public final class PrecisionReport {
+    // Keeps timed forward passes from being optimized away
+    private static volatile double sink;
+
+    private final double maxAbsError;
+    private final double meanAbsError;
+    private final long doubleWeightBytes;
+    private final long floatWeightBytes;
+    private final double doubleNanosPerSample;
+    private final double floatNanosPerSample;
+
+    private PrecisionReport(double maxAbsError, double meanAbsError, long doubleWeightBytes, long floatWeightBytes,
+                            double doubleNanosPerSample, double floatNanosPerSample) {
+        this.maxAbsError = maxAbsError;
+        this.meanAbsError = meanAbsError;
+        this.doubleWeightBytes = doubleWeightBytes;
+        this.floatWeightBytes = floatWeightBytes;
+        this.doubleNanosPerSample = doubleNanosPerSample;
+        this.floatNanosPerSample = floatNanosPerSample;
+    }
+
+    // Runs both models over the same input sequence from a zero state. Inputs must have exactly inputSize columns.
+    public static PrecisionReport compare(LSTMNetwork reference, FloatLSTMNetwork candidate, double[][] inputs) {
+        int h = reference.getHiddenSize();
+        LSTMWorkspace doubleWorkspace = reference.newWorkspace();
+        FloatLSTMWorkspace floatWorkspace = candidate.newWorkspace();
+        double[] doubleHidden = new double[h];
+        double[] doubleCell = new double[h];
+        float[] floatHidden = new float[h];
+        float[] floatCell = new float[h];
+
+        double maxError = 0;
+        double totalError = 0;
+        for (double[] input : inputs) {
+            double expected = reference.forward(input, doubleHidden, doubleCell, doubleWorkspace)[0];
+            double actual = candidate.forward(input, floatHidden, floatCell, floatWorkspace)[0];
+            double error = Math.abs(expected - actual);
+            maxError = Math.max(maxError, error);
+            totalError += error;
+        }
+
+        double doubleNanos = timeDouble(reference, inputs, doubleWorkspace, doubleHidden, doubleCell);
+        double floatNanos = timeFloat(candidate, inputs, floatWorkspace, floatHidden, floatCell);
+        return new PrecisionReport(maxError, totalError / inputs.length, reference.getWeightBytes(),
+                candidate.getWeightBytes(), doubleNanos, floatNanos);
+    }
+
+    private static double timeDouble(LSTMNetwork network, double[][] inputs, LSTMWorkspace ws, double[] hidden, double[] cell) {
+        double total = 0;
+        long start = System.nanoTime();
+        for (double[] input : inputs) {
+            total += network.forward(input, hidden, cell, ws)[0];
+        }
+        long elapsed = System.nanoTime() - start;
+        sink = total;
+        return (double) elapsed / inputs.length;
+    }
+
+    private static double timeFloat(FloatLSTMNetwork network, double[][] inputs, FloatLSTMWorkspace ws, float[] hidden, float[] cell) {
+        double total = 0;
+        long start = System.nanoTime();
+        for (double[] input : inputs) {
+            total += network.forward(input, hidden, cell, ws)[0];
+        }
+        long elapsed = System.nanoTime() - start;
+        sink = total;
+        return (double) elapsed / inputs.length;
+    }
+
+    public double getMaxAbsError() {
+        return maxAbsError;
+    }
+
+    public double getMeanAbsError() {
+        return meanAbsError;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("float32 vs float64: max |error| %.3g, mean |error| %.3g, weights %d -> %d bytes, forward %.0f -> %.0f ns/sample",
+                maxAbsError, meanAbsError, doubleWeightBytes, floatWeightBytes, doubleNanosPerSample, floatNanosPerSample);
+    }
+}
@@ -0,0 +1,84 @@
+package lstm;
+
+// Reference backend: plain loops with Math.exp/Math.tanh
+final class ScalarKernels implements Kernels {
+
+    @Override
+    public void gemv(double[] w, int rows, int stride, int n, double[] bias, double[] x, int xOff, double[] out, int outOff) {
+        for (int r = 0; r < rows; r++) {
+            int base = r * stride;
+            double sum = 0;
+            for (int j = 0; j < n; j++) {
+                sum += w[base + j] * x[xOff + j];
+            }
+            out[outOff + r] = sum + bias[r];
+        }
+    }
+
+    @Override
+    public void gemm(double[] w, int rows, int stride, int n, double[] bias, double[] x, int count, double[] out) {
+        for (int r = 0; r < rows; r++) {
+            int base = r * stride;
+            for (int s = 0; s < count; s++) {
+                int xBase = s * stride;
+                double sum = 0;
+                for (int j = 0; j < n; j++) {
+                    sum += w[base + j] * x[xBase + j];
+                }
+                out[s * rows + r] = sum + bias[r];
+            }
+        }
+    }
+
+    @Override
+    public void gemmTransposeAccumulate(double[] grad, double[] gradBias, int rows, int stride, int n, double[] d, double[] x, int count) {
+        for (int r = 0; r < rows; r++) {
+            int base = r * stride;
+            double biasGrad = 0;
+            for (int s = 0; s < count; s++) {
+                double ds = d[s * rows + r];
+                int xBase = s * stride;
+                for (int j = 0; j < n; j++) {
+                    grad[base + j] += ds * x[xBase + j];
+                }
+                biasGrad += ds;
+            }
+            gradBias[r] += biasGrad;
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        for (int j = 0; j < n; j++) {
+            y[yOff + j] += alpha * x[xOff + j];
+        }
+    }
+
+    @Override
+    public void sigmoid(double[] v, int from, int to) {
+        for (int i = from; i < to; i++) {
+            v[i] = 1.0 / (1.0 + Math.exp(-v[i]));
+        }
+    }
+
+    @Override
+    public void tanh(double[] v, int from, int to) {
+        for (int i = from; i < to; i++) {
+            v[i] = Math.tanh(v[i]);
+        }
+    }
+
+    @Override
+    public double tanh(double x) {
+        return Math.tanh(x);
+    }
+
+    @Override
+    public void cellUpdate(double[] gates, int gOff, double[] cellState, double[] newCellState, double[] newHiddenState, int hOff, int h) {
+        for (int i = 0; i < h; i++) {
+            double c = gates[gOff + i] * cellState[i] + gates[gOff + h + i] * gates[gOff + 3 * h + i];
+            newCellState[hOff + i] = c;
+            newHiddenState[hOff + i] = gates[gOff + 2 * h + i] * Math.tanh(c);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package lstm;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Explicit SIMD lanes through the jdk.incubator.vector API, at the widest double shape the CPU has (4 lanes
+// on AVX2, 8 on AVX-512). Dot products keep one vector accumulator per row or sample and reduce it once;
+// tanh and sigmoid evaluate FastKernels' [13/12] Pade approximation lane-wise with fused multiply-adds.
+// Only loaded by KernelSelection when the JVM was started with --add-modules jdk.incubator.vector.
+final class VectorKernels implements Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private static final double TANH_CLAMP = 9.0;
+
+    VectorKernels() {
+        // Without SIMD registers the API runs a lane at a time in Java, slower than the scalar loops
+        if (LANES < 2) {
+            throw new UnsupportedOperationException("No SIMD double lanes on this CPU");
+        }
+    }
+
+    static int lanes() {
+        return LANES;
+    }
+
+    // x * P(x^2) / Q(x^2) on every lane, saturated beyond |x| = TANH_CLAMP
+    private static DoubleVector tanh(DoubleVector v) {
+        DoubleVector x = v.max(-TANH_CLAMP).min(TANH_CLAMP);
+        DoubleVector y = x.mul(x);
+        DoubleVector p = y.add(FastKernels.P5)
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.P4))
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.P3))
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.P2))
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.P1))
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.P0));
+        DoubleVector q = y.mul(FastKernels.Q6).add(FastKernels.Q5)
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.Q4))
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.Q3))
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.Q2))
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.Q1))
+                .fma(y, DoubleVector.broadcast(SPECIES, FastKernels.Q0));
+        return x.mul(p).div(q);
+    }
+
+    // Four rows per pass so every x vector load feeds four dot products
+    @Override
+    public void gemv(double[] w, int rows, int stride, int n, double[] bias, double[] x, int xOff, double[] out, int outOff) {
+        int bound = SPECIES.loopBound(n);
+        int r = 0;
+        for (; r + 3 < rows; r += 4) {
+            int b0 = r * stride;
+            int b1 = b0 + stride;
+            int b2 = b1 + stride;
+            int b3 = b2 + stride;
+            DoubleVector acc0 = DoubleVector.zero(SPECIES);
+            DoubleVector acc1 = DoubleVector.zero(SPECIES);
+            DoubleVector acc2 = DoubleVector.zero(SPECIES);
+            DoubleVector acc3 = DoubleVector.zero(SPECIES);
+            int j = 0;
+            for (; j < bound; j += LANES) {
+                DoubleVector xj = DoubleVector.fromArray(SPECIES, x, xOff + j);
+                acc0 = DoubleVector.fromArray(SPECIES, w, b0 + j).fma(xj, acc0);
+                acc1 = DoubleVector.fromArray(SPECIES, w, b1 + j).fma(xj, acc1);
+                acc2 = DoubleVector.fromArray(SPECIES, w, b2 + j).fma(xj, acc2);
+                acc3 = DoubleVector.fromArray(SPECIES, w, b3 + j).fma(xj, acc3);
+            }
+            double sum0 = acc0.reduceLanes(VectorOperators.ADD);
+            double sum1 = acc1.reduceLanes(VectorOperators.ADD);
+            double sum2 = acc2.reduceLanes(VectorOperators.ADD);
+            double sum3 = acc3.reduceLanes(VectorOperators.ADD);
+            for (; j < n; j++) {
+                double xj = x[xOff + j];
+                sum0 += w[b0 + j] * xj;
+                sum1 += w[b1 + j] * xj;
+                sum2 += w[b2 + j] * xj;
+                sum3 += w[b3 + j] * xj;
+            }
+            out[outOff + r] = sum0 + bias[r];
+            out[outOff + r + 1] = sum1 + bias[r + 1];
+            out[outOff + r + 2] = sum2 + bias[r + 2];
+            out[outOff + r + 3] = sum3 + bias[r + 3];
+        }
+        for (; r < rows; r++) {
+            out[outOff + r] = dot(w, r * stride, x, xOff, n, bound) + bias[r];
+        }
+    }
+
+    // Four samples per pass so every w vector load feeds four dot products
+    @Override
+    public void gemm(double[] w, int rows, int stride, int n, double[] bias, double[] x, int count, double[] out) {
+        int bound = SPECIES.loopBound(n);
+        for (int r = 0; r < rows; r++) {
+            int base = r * stride;
+            double b = bias[r];
+            int s = 0;
+            for (; s + 3 < count; s += 4) {
+                int x0 = s * stride;
+                int x1 = x0 + stride;
+                int x2 = x1 + stride;
+                int x3 = x2 + stride;
+                DoubleVector acc0 = DoubleVector.zero(SPECIES);
+                DoubleVector acc1 = DoubleVector.zero(SPECIES);
+                DoubleVector acc2 = DoubleVector.zero(SPECIES);
+                DoubleVector acc3 = DoubleVector.zero(SPECIES);
+                int j = 0;
+                for (; j < bound; j += LANES) {
+                    DoubleVector wj = DoubleVector.fromArray(SPECIES, w, base + j);
+                    acc0 = wj.fma(DoubleVector.fromArray(SPECIES, x, x0 + j), acc0);
+                    acc1 = wj.fma(DoubleVector.fromArray(SPECIES, x, x1 + j), acc1);
+                    acc2 = wj.fma(DoubleVector.fromArray(SPECIES, x, x2 + j), acc2);
+                    acc3 = wj.fma(DoubleVector.fromArray(SPECIES, x, x3 + j), acc3);
+                }
+                double sum0 = acc0.reduceLanes(VectorOperators.ADD);
+                double sum1 = acc1.reduceLanes(VectorOperators.ADD);
+                double sum2 = acc2.reduceLanes(VectorOperators.ADD);
+                double sum3 = acc3.reduceLanes(VectorOperators.ADD);
+                for (; j < n; j++) {
+                    double wj = w[base + j];
+                    sum0 += wj * x[x0 + j];
+                    sum1 += wj * x[x1 + j];
+                    sum2 += wj * x[x2 + j];
+                    sum3 += wj * x[x3 + j];
+                }
+                out[s * rows + r] = sum0 + b;
+                out[(s + 1) * rows + r] = sum1 + b;
+                out[(s + 2) * rows + r] = sum2 + b;
+                out[(s + 3) * rows + r] = sum3 + b;
+            }
+            for (; s < count; s++) {
+                out[s * rows + r] = dot(w, base, x, s * stride, n, bound) + b;
+            }
+        }
+    }
+
+    // Four samples per pass over each gradient row, so the row is loaded and stored once per four samples
+    @Override
+    public void gemmTransposeAccumulate(double[] grad, double[] gradBias, int rows, int stride, int n, double[] d, double[] x, int count) {
+        int bound = SPECIES.loopBound(n);
+        for (int r = 0; r < rows; r++) {
+            int base = r * stride;
+            double biasGrad = 0;
+            int s = 0;
+            for (; s + 3 < count; s += 4) {
+                double d0 = d[s * rows + r];
+                double d1 = d[(s + 1) * rows + r];
+                double d2 = d[(s + 2) * rows + r];
+                double d3 = d[(s + 3) * rows + r];
+                int x0 = s * stride;
+                int x1 = x0 + stride;
+                int x2 = x1 + stride;
+                int x3 = x2 + stride;
+                int j = 0;
+                for (; j < bound; j += LANES) {
+                    DoubleVector sum = DoubleVector.fromArray(SPECIES, x, x0 + j).mul(d0)
+                            .add(DoubleVector.fromArray(SPECIES, x, x1 + j).mul(d1))
+                            .add(DoubleVector.fromArray(SPECIES, x, x2 + j).mul(d2))
+                            .add(DoubleVector.fromArray(SPECIES, x, x3 + j).mul(d3));
+                    DoubleVector.fromArray(SPECIES, grad, base + j).add(sum).intoArray(grad, base + j);
+                }
+                for (; j < n; j++) {
+                    grad[base + j] += d0 * x[x0 + j] + d1 * x[x1 + j] + d2 * x[x2 + j] + d3 * x[x3 + j];
+                }
+                biasGrad += d0 + d1 + d2 + d3;
+            }
+            for (; s < count; s++) {
+                double ds = d[s * rows + r];
+                axpy(ds, x, s * stride, grad, base, n);
+                biasGrad += ds;
+            }
+            gradBias[r] += biasGrad;
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        int bound = SPECIES.loopBound(n);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            DoubleVector.fromArray(SPECIES, x, xOff + j).mul(alpha)
+                    .add(DoubleVector.fromArray(SPECIES, y, yOff + j))
+                    .intoArray(y, yOff + j);
+        }
+        for (; j < n; j++) {
+            y[yOff + j] += alpha * x[xOff + j];
+        }
+    }
+
+    // sigmoid(x) = (1 + tanh(x / 2)) / 2
+    @Override
+    public void sigmoid(double[] v, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            tanh(DoubleVector.fromArray(SPECIES, v, i).mul(0.5)).mul(0.5).add(0.5).intoArray(v, i);
+        }
+        for (; i < to; i++) {
+            v[i] = 0.5 + 0.5 * FastKernels.tanhApprox(0.5 * v[i]);
+        }
+    }
+
+    @Override
+    public void tanh(double[] v, int from, int to) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            tanh(DoubleVector.fromArray(SPECIES, v, i)).intoArray(v, i);
+        }
+        for (; i < to; i++) {
+            v[i] = FastKernels.tanhApprox(v[i]);
+        }
+    }
+
+    @Override
+    public double tanh(double x) {
+        return FastKernels.tanhApprox(x);
+    }
+
+    @Override
+    public void cellUpdate(double[] gates, int gOff, double[] cellState, double[] newCellState, double[] newHiddenState, int hOff, int h) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(h); i < bound; i += LANES) {
+            DoubleVector forget = DoubleVector.fromArray(SPECIES, gates, gOff + i);
+            DoubleVector input = DoubleVector.fromArray(SPECIES, gates, gOff + h + i);
+            DoubleVector output = DoubleVector.fromArray(SPECIES, gates, gOff + 2 * h + i);
+            DoubleVector candidate = DoubleVector.fromArray(SPECIES, gates, gOff + 3 * h + i);
+            DoubleVector c = forget.mul(DoubleVector.fromArray(SPECIES, cellState, i)).add(input.mul(candidate));
+            c.intoArray(newCellState, hOff + i);
+            output.mul(tanh(c)).intoArray(newHiddenState, hOff + i);
+        }
+        for (; i < h; i++) {
+            double c = gates[gOff + i] * cellState[i] + gates[gOff + h + i] * gates[gOff + 3 * h + i];
+            newCellState[hOff + i] = c;
+            newHiddenState[hOff + i] = gates[gOff + 2 * h + i] * FastKernels.tanhApprox(c);
+        }
+    }
+
+    private static double dot(double[] a, int aOff, double[] b, int bOff, int n, int bound) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            acc = DoubleVector.fromArray(SPECIES, a, aOff + j).fma(DoubleVector.fromArray(SPECIES, b, bOff + j), acc);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; j < n; j++) {
+            sum += a[aOff + j] * b[bOff + j];
+        }
+        return sum;
+    }
+}
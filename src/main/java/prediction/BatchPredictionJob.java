@@ -0,0 +1,251 @@
+package prediction;
+
+import database.DatabaseHelper;
+import database.PredictionWriter;
+import lstm.LSTMPredictor;
+import lstm.LSTMState;
+import util.CustomChartUtils;
+import util.FeatureEngine;
+import util.StockSeries;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Non-interactive forecast of every daily_data_* table. Each symbol runs as its own task (a virtual thread
+// when the runtime has them), so one symbol's database wait overlaps another's features, inference and chart.
+// A semaphore caps how many tasks load from the database at once. The model is shared; each task has its own state.
+// Predictions are handed to a PredictionWriter and inserted in batches behind the tasks.
+public class BatchPredictionJob {
+    private static final Logger LOGGER = Logger.getLogger(BatchPredictionJob.class.getName());
+    private static final String TABLE_PREFIX = "daily_data_";
+    private static final int WRITE_QUEUE_CAPACITY = 4096;
+    private static final int WRITE_BATCH_SIZE = 500;
+    private static final long WRITE_FLUSH_MILLIS = 200;
+
+    private final DatabaseHelper dbHelper;
+    private final LSTMPredictor model;
+    private final FeatureEngine features;
+    private final int days;
+    private final String chartDir;
+    private final int dbConcurrency;
+    private final Semaphore dbPermits;
+    private final SymbolStateStore stateStore;
+
+    // features is the spec the model was trained on, as FeatureEngine.forModel() reads it
+    public BatchPredictionJob(DatabaseHelper dbHelper, LSTMPredictor model, FeatureEngine features, int days, String chartDir,
+                              int dbConcurrency) {
+        this(dbHelper, model, features, days, chartDir, dbConcurrency, null);
+    }
+
+    // With a state store, each symbol's saved prediction is the model output after its latest bar, computed
+    // from the stored state with one step per new bar; without one it is the last value of the days series
+    public BatchPredictionJob(DatabaseHelper dbHelper, LSTMPredictor model, FeatureEngine features, int days, String chartDir,
+                              int dbConcurrency, SymbolStateStore stateStore) {
+        if (dbConcurrency < 1) {
+            throw new IllegalArgumentException("Database concurrency must be positive: " + dbConcurrency);
+        }
+        if (features.inputSize() != model.getInputSize()) {
+            throw new IllegalArgumentException("Feature spec \"" + features.getSpec() + "\" gives " + features.inputSize()
+                    + " inputs; the model takes " + model.getInputSize());
+        }
+        this.dbHelper = dbHelper;
+        this.model = model;
+        this.features = features;
+        this.days = days;
+        this.chartDir = chartDir;
+        this.dbConcurrency = dbConcurrency;
+        this.dbPermits = new Semaphore(dbConcurrency, true);
+        this.stateStore = stateStore;
+    }
+
+    // Predicts every symbol and waits for all of them. A failing symbol is logged and counted, not fatal.
+    public Report run() throws Exception {
+        List<String> tableNames = dbHelper.getAllStockTableNames();
+        LocalDate today = LocalDate.now();
+
+        long start = System.nanoTime();
+        List<Future<SymbolTiming>> futures = new ArrayList<>(tableNames.size());
+        ExecutorService executor = newPerTaskExecutor(dbConcurrency);
+        PredictionWriter writer = new PredictionWriter(dbHelper, WRITE_QUEUE_CAPACITY, WRITE_BATCH_SIZE, WRITE_FLUSH_MILLIS);
+        try {
+            for (String tableName : tableNames) {
+                futures.add(executor.submit(() -> predictSymbol(tableName, today, writer)));
+            }
+            List<SymbolTiming> timings = new ArrayList<>(futures.size());
+            int failed = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    timings.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    failed++;
+                    LOGGER.log(Level.SEVERE, "Prediction failed for " + tableNames.get(i), e.getCause());
+                }
+            }
+            if (stateStore != null) {
+                stateStore.flush();
+                LOGGER.log(Level.INFO, stateStore.toString());
+            }
+            // The run is not over until every prediction is in the database
+            writer.close();
+            return new Report(timings, failed, System.nanoTime() - start);
+        } finally {
+            executor.shutdown();
+            writer.close();
+        }
+    }
+
+    private SymbolTiming predictSymbol(String tableName, LocalDate today, PredictionWriter writer) throws Exception {
+        long t0 = System.nanoTime();
+        StockSeries stockData;
+        dbPermits.acquire();
+        try {
+            stockData = dbHelper.loadStockSeries(tableName);
+        } finally {
+            dbPermits.release();
+        }
+        long t1 = System.nanoTime();
+
+        double[][] rows = features.features(stockData);
+        long t2 = System.nanoTime();
+
+        double[] predictions = predict(model, rows, days);
+        double prediction = stateStore != null
+                ? stateStore.advance(model, tableName, rows)
+                : predictions[predictions.length - 1];
+        long t3 = System.nanoTime();
+
+        CustomChartUtils.savePredictionChart("Predictions for " + tableName, predictions,
+                chartDir + File.separator + tableName + "_predictions.png", "Days", "Price");
+        long t4 = System.nanoTime();
+
+        // The last close is the reference the final forecast is compared against
+        double actual = stockData.close(stockData.size() - 1);
+        double priceChange = prediction - actual;
+        String predict = priceChange >= 0 ? "UP" : "DOWN";
+        String pointChange = String.format("%.2f", priceChange);
+        writer.write(symbol(tableName), predict, pointChange, priceChange, prediction, actual, today, today.plusDays(days));
+        long t5 = System.nanoTime();
+
+        return new SymbolTiming(tableName, t1 - t0, t2 - t1, t3 - t2, t4 - t3, t5 - t4);
+    }
+
+    // Runs the last days feature rows (without their trailing target column) through the model from a fresh
+    // state, so the final prediction follows the latest bar
+    public static double[] predict(LSTMPredictor model, double[][] features, int days) {
+        int steps = Math.min(days, features.length);
+        int first = features.length - steps;
+        double[] predictions = new double[steps];
+        LSTMState state = model.newState();
+        double[] currentInput = new double[model.getInputSize()];
+        for (int i = 0; i < steps; i++) {
+            System.arraycopy(features[first + i], 0, currentInput, 0, currentInput.length);
+            predictions[i] = model.predict(currentInput, state)[0];
+        }
+        return predictions;
+    }
+
+    private static String symbol(String tableName) {
+        return tableName.startsWith(TABLE_PREFIX) ? tableName.substring(TABLE_PREFIX.length()) : tableName;
+    }
+
+    // Virtual thread per task on Java 21+. Looked up reflectively because the build targets Java 17;
+    // older runtimes get a platform pool sized so the database permits and all cores can be busy at once.
+    static ExecutorService newPerTaskExecutor(int dbConcurrency) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(dbConcurrency + Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    // Per-stage latency of one symbol, in nanoseconds
+    public static final class SymbolTiming {
+        final String tableName;
+        final long loadNanos;
+        final long featureNanos;
+        final long inferenceNanos;
+        final long chartNanos;
+        final long saveNanos;
+
+        SymbolTiming(String tableName, long loadNanos, long featureNanos, long inferenceNanos, long chartNanos, long saveNanos) {
+            this.tableName = tableName;
+            this.loadNanos = loadNanos;
+            this.featureNanos = featureNanos;
+            this.inferenceNanos = inferenceNanos;
+            this.chartNanos = chartNanos;
+            this.saveNanos = saveNanos;
+        }
+
+        public long totalNanos() {
+            return loadNanos + featureNanos + inferenceNanos + chartNanos + saveNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s total=%.1f ms (load %.1f, features %.1f, inference %.1f, chart %.1f, save %.1f)",
+                    tableName, totalNanos() / 1e6, loadNanos / 1e6, featureNanos / 1e6, inferenceNanos / 1e6,
+                    chartNanos / 1e6, saveNanos / 1e6);
+        }
+    }
+
+    public static final class Report {
+        private final List<SymbolTiming> timings;
+        private final int failed;
+        private final long wallNanos;
+
+        Report(List<SymbolTiming> timings, int failed, long wallNanos) {
+            this.timings = timings;
+            this.failed = failed;
+            this.wallNanos = wallNanos;
+        }
+
+        public List<SymbolTiming> getTimings() {
+            return timings;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        // Summed per-symbol latency over wall time: how many symbols were effectively in flight
+        public double getOverlap() {
+            long busy = 0;
+            for (SymbolTiming timing : timings) {
+                busy += timing.totalNanos();
+            }
+            return wallNanos == 0 ? 0 : (double) busy / wallNanos;
+        }
+
+        @Override
+        public String toString() {
+            long[] totals = new long[timings.size()];
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] = timings.get(i).totalNanos();
+            }
+            Arrays.sort(totals);
+            return String.format("Batch prediction: %d symbols ok, %d failed, wall %.1f ms, per-symbol p50 %.1f ms, p95 %.1f ms, max %.1f ms, overlap %.1fx",
+                    timings.size(), failed, wallNanos / 1e6, percentile(totals, 0.50) / 1e6,
+                    percentile(totals, 0.95) / 1e6, percentile(totals, 1.0) / 1e6, getOverlap());
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+}
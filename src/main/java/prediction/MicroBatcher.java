@@ -0,0 +1,264 @@
+package prediction;
+
+import lstm.LSTMBatchWorkspace;
+import lstm.LSTMState;
+import lstm.LSTMWeights;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Coalesces prediction requests that arrive within maxWait of each other into one batched forward pass.
+// Requests wait in a bounded queue; submit() refuses work when it is full instead of blocking the caller.
+// Each batcher thread owns its workspace and states, so the hot path has no locking or allocation per step;
+// several threads let batches run on separate cores while the shared model stays read-only.
+public class MicroBatcher {
+    private static final Logger LOGGER = Logger.getLogger(MicroBatcher.class.getName());
+    // Recent per-symbol model times kept for the percentile report
+    private static final int LATENCY_SAMPLES = 4096;
+
+    private final LSTMWeights model;
+    private final int maxBatch;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final Thread[] threads;
+    private volatile boolean running = true;
+    private final LSTMState initialState;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private long batches;
+    private long batchedRequests;
+    private final long[] modelNanos = new long[LATENCY_SAMPLES];
+    private long modelSamples;
+
+    public MicroBatcher(LSTMWeights model, int threads, int maxBatch, long maxWaitMicros, int queueCapacity) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatch);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        this.model = model;
+        this.maxBatch = maxBatch;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.initialState = model.newState();
+        this.threads = new Thread[threads];
+        for (int k = 0; k < threads; k++) {
+            Lane lane = new Lane();
+            this.threads[k] = new Thread(lane::run, "prediction-batcher-" + k);
+            this.threads[k].setDaemon(true);
+        }
+    }
+
+    public void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    // Queues the first `days` rows of inputs for prediction. Returns null when the queue is full. Cancelling
+    // the returned future before its batch runs drops the request.
+    public CompletableFuture<double[]> submit(String key, double[][] inputs, int days) {
+        Request request = new Request(key, inputs, Math.min(days, inputs.length));
+        if (!running || !queue.offer(request)) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        accepted.incrementAndGet();
+        return request.result;
+    }
+
+    public void stop() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(new IllegalStateException("Prediction service stopped"));
+        }
+    }
+
+    // One batcher thread's model buffers
+    private final class Lane {
+        final LSTMBatchWorkspace workspace = model.newBatchWorkspace(maxBatch);
+        final LSTMState[] states = new LSTMState[maxBatch];
+        final double[][] stepInputs = new double[maxBatch][];
+
+        Lane() {
+            for (int s = 0; s < maxBatch; s++) {
+                states[s] = model.newState();
+            }
+        }
+
+        private void run() {
+            List<Request> batch = new ArrayList<>(maxBatch);
+            while (running) {
+                try {
+                    Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    // Whatever is already waiting joins immediately; then wait out the window for stragglers
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long deadline = System.nanoTime() + maxWaitNanos;
+                    while (batch.size() < maxBatch) {
+                        long remaining = deadline - System.nanoTime();
+                        Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, maxBatch - batch.size());
+                    }
+                    process(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Prediction batch failed", e);
+                    for (Request request : batch) {
+                        request.result.completeExceptionally(e);
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        // Runs one batch: identical requests share a slot, and slots are ordered longest first so the
+        // sequences still running at step t are always the prefix of the batch. Requests whose caller gave up
+        // and cancelled them are skipped.
+        private void process(List<Request> batch) {
+            Map<String, Request> leaders = new HashMap<>();
+            List<Request> slots = new ArrayList<>(batch.size());
+            for (Request request : batch) {
+                if (request.result.isCancelled()) {
+                    continue;
+                }
+                Request leader = leaders.get(request.key);
+                if (leader == null) {
+                    leaders.put(request.key, request);
+                    slots.add(request);
+                } else {
+                    leader.followers.add(request);
+                }
+            }
+            slots.sort((a, b) -> Integer.compare(b.days, a.days));
+
+            long start = System.nanoTime();
+            int count = slots.size();
+            double[][] predictions = new double[count][];
+            for (int s = 0; s < count; s++) {
+                predictions[s] = new double[slots.get(s).days];
+                states[s].restore(initialState.getHiddenState(), initialState.getCellState());
+            }
+            int steps = count == 0 ? 0 : slots.get(0).days;
+            int active = count;
+            for (int t = 0; t < steps; t++) {
+                while (active > 0 && slots.get(active - 1).days <= t) {
+                    active--;
+                }
+                for (int s = 0; s < active; s++) {
+                    stepInputs[s] = slots.get(s).inputs[t];
+                }
+                model.predictBatch(stepInputs, states, active, workspace);
+                for (int s = 0; s < active; s++) {
+                    predictions[s][t] = states[s].getOutput()[0];
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            Arrays.fill(stepInputs, null);
+
+            record(batch.size(), elapsed);
+            for (int s = 0; s < count; s++) {
+                Request leader = slots.get(s);
+                leader.result.complete(predictions[s]);
+                for (Request follower : leader.followers) {
+                    follower.result.complete(predictions[s].clone());
+                }
+            }
+        }
+    }
+
+    private synchronized void record(int requests, long elapsed) {
+        batches++;
+        batchedRequests += requests;
+        long perRequest = elapsed / requests;
+        for (int i = 0; i < requests; i++) {
+            modelNanos[(int) (modelSamples++ % LATENCY_SAMPLES)] = perRequest;
+        }
+    }
+
+    public synchronized Stats stats() {
+        int n = (int) Math.min(modelSamples, LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(modelNanos, n);
+        Arrays.sort(sorted);
+        return new Stats(accepted.get(), rejected.get(), queue.size(), batches,
+                batches == 0 ? 0 : (double) batchedRequests / batches,
+                percentile(sorted, 0.50), percentile(sorted, 0.99));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static final class Request {
+        final String key;
+        final double[][] inputs;
+        final int days;
+        final CompletableFuture<double[]> result = new CompletableFuture<>();
+        // Identical requests in the same batch, answered from this one's sequence
+        final List<Request> followers = new ArrayList<>(0);
+
+        Request(String key, double[][] inputs, int days) {
+            this.key = key;
+            this.inputs = inputs;
+            this.days = days;
+        }
+    }
+
+    public static final class Stats {
+        public final long accepted;
+        public final long rejected;
+        public final int queued;
+        public final long batches;
+        public final double meanBatchSize;
+        // Model time per request over the recent window, in nanoseconds
+        public final long p50ModelNanos;
+        public final long p99ModelNanos;
+
+        Stats(long accepted, long rejected, int queued, long batches, double meanBatchSize, long p50ModelNanos, long p99ModelNanos) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.queued = queued;
+            this.batches = batches;
+            this.meanBatchSize = meanBatchSize;
+            this.p50ModelNanos = p50ModelNanos;
+            this.p99ModelNanos = p99ModelNanos;
+        }
+
+        public String toJson() {
+            return String.format(Locale.ROOT, "{\"accepted\":%d,\"rejected\":%d,\"queued\":%d,\"batches\":%d,\"meanBatchSize\":%.2f,"
+                            + "\"p50ModelMicros\":%.1f,\"p99ModelMicros\":%.1f}",
+                    accepted, rejected, queued, batches, meanBatchSize, p50ModelNanos / 1e3, p99ModelNanos / 1e3);
+        }
+    }
+}
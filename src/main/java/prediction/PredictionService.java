@@ -0,0 +1,261 @@
+package prediction;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import database.DatabaseHelper;
+import lstm.LSTMWeights;
+import util.FeatureEngine;
+import util.Normalizer;
+import util.StockSeries;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+// Embedded HTTP front end for the model, on the JDK's built-in server.
+//   GET /predict?symbol=NABIL&days=10  -> {"symbol":"NABIL","predictions":[...]}
+//   GET /stats                         -> queue, batching and model-latency counters
+// Each symbol's latest maxDays feature rows are kept in memory for featureTtlMillis, then reloaded so new bars
+// show up; at most maxSymbols symbols are kept, least recently used dropped first. A request for d days runs
+// the last d rows. Requests are coalesced by a MicroBatcher; when its queue is full the service answers 503
+// with Retry-After instead of queueing more. A model trained on normalized rows comes with its Normalizer:
+// rows are scaled with it when loaded and predictions mapped back to price units before they are sent.
+// Rows are built from the feature spec the model was trained on.
+public class PredictionService {
+    private static final Logger LOGGER = Logger.getLogger(PredictionService.class.getName());
+    private static final Pattern SYMBOL = Pattern.compile("[A-Za-z0-9_]{1,32}");
+    private static final String TABLE_PREFIX = "daily_data_";
+
+    private final DatabaseHelper dbHelper;
+    private final MicroBatcher batcher;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final int maxDays;
+    private final long timeoutMillis;
+    private final long featureTtlMillis;
+    private final FeatureEngine featureEngine;
+    // Training statistics, or null for a model trained on raw rows; the target is its last column
+    private final Normalizer normalizer;
+    // Model inputs per symbol, in access order so the least recently used symbol is dropped first
+    private final Map<String, CompletableFuture<Features>> features;
+
+    public PredictionService(DatabaseHelper dbHelper, LSTMWeights model, FeatureEngine featureEngine, int port, int handlerThreads,
+                             int batcherThreads, int maxBatch, long maxWaitMicros, int queueCapacity, int maxDays, long timeoutMillis,
+                             int maxSymbols, long featureTtlMillis, Normalizer normalizer) throws IOException {
+        if (maxSymbols < 1) {
+            throw new IllegalArgumentException("Symbol capacity must be positive: " + maxSymbols);
+        }
+        if (featureEngine.inputSize() != model.getInputSize()) {
+            throw new IllegalArgumentException("Feature spec \"" + featureEngine.getSpec() + "\" gives " + featureEngine.inputSize()
+                    + " inputs; the model takes " + model.getInputSize());
+        }
+        if (normalizer != null && normalizer.getColumns() != model.getInputSize() + 1) {
+            throw new IllegalArgumentException("Normalizer has " + normalizer.getColumns() + " columns; the model reads "
+                    + model.getInputSize() + " inputs plus the target");
+        }
+        this.featureEngine = featureEngine;
+        this.normalizer = normalizer;
+        this.dbHelper = dbHelper;
+        this.batcher = new MicroBatcher(model, batcherThreads, maxBatch, maxWaitMicros, queueCapacity);
+        this.maxDays = maxDays;
+        this.timeoutMillis = timeoutMillis;
+        this.featureTtlMillis = featureTtlMillis;
+        this.features = Collections.synchronizedMap(new LinkedHashMap<String, CompletableFuture<Features>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Features>> eldest) {
+                return size() > maxSymbols;
+            }
+        });
+        this.handlers = Executors.newFixedThreadPool(handlerThreads);
+        this.server = HttpServer.create(new InetSocketAddress(port), queueCapacity);
+        server.createContext("/predict", this::handlePredict);
+        server.createContext("/stats", this::handleStats);
+        server.setExecutor(handlers);
+    }
+
+    public void start() {
+        batcher.start();
+        server.start();
+        LOGGER.log(Level.INFO, "Prediction service listening on port {0}", server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        batcher.stop();
+        handlers.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public MicroBatcher.Stats stats() {
+        return batcher.stats();
+    }
+
+    private void handlePredict(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String symbol = params.get("symbol");
+            if (symbol == null || !SYMBOL.matcher(symbol).matches()) {
+                send(exchange, 400, error("symbol must match " + SYMBOL.pattern()));
+                return;
+            }
+            int days;
+            try {
+                days = Integer.parseInt(params.getOrDefault("days", "1"));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, error("days must be an integer"));
+                return;
+            }
+            if (days < 1 || days > maxDays) {
+                send(exchange, 400, error("days must be between 1 and " + maxDays));
+                return;
+            }
+
+            Features loaded;
+            try {
+                loaded = features(symbol);
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Could not load features for " + symbol, e.getCause());
+                send(exchange, 404, error("no data for symbol " + symbol));
+                return;
+            }
+
+            // The last `days` rows, so the final prediction follows the latest bar; the key names the bar too,
+            // so requests coalesced across a reload never share a sequence
+            int steps = Math.min(days, loaded.inputs.length);
+            double[][] inputs = Arrays.copyOfRange(loaded.inputs, loaded.inputs.length - steps, loaded.inputs.length);
+            CompletableFuture<double[]> result = batcher.submit(symbol + ':' + loaded.lastDate + ':' + steps, inputs, steps);
+            if (result == null) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, error("prediction queue is full"));
+                return;
+            }
+            double[] predictions;
+            try {
+                predictions = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // The batcher skips a cancelled request that has not run yet
+                result.cancel(false);
+                send(exchange, 504, error("prediction timed out"));
+                return;
+            }
+            if (normalizer != null) {
+                int target = normalizer.getColumns() - 1;
+                double[] prices = new double[predictions.length];
+                for (int i = 0; i < prices.length; i++) {
+                    prices[i] = normalizer.denormalize(predictions[i], target);
+                }
+                predictions = prices;
+            }
+            send(exchange, 200, "{\"symbol\":\"" + symbol + "\",\"predictions\":" + Arrays.toString(predictions).replace(" ", "") + "}");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, error("service stopping"));
+        } catch (ExecutionException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Prediction request failed", e);
+            send(exchange, 500, error("prediction failed"));
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        send(exchange, 200, batcher.stats().toJson());
+    }
+
+    // Loads a symbol on first use and again once its rows are older than featureTtlMillis; concurrent requests
+    // share one load, and a failed load is retried next time
+    private Features features(String symbol) throws ExecutionException, InterruptedException {
+        CompletableFuture<Features> pending = new CompletableFuture<>();
+        CompletableFuture<Features> existing = features.putIfAbsent(symbol, pending);
+        // Still loading, fresh, or another request won the race to reload it: use what is there
+        if (existing != null && (!expired(existing) || !features.replace(symbol, existing, pending))) {
+            return existing.get();
+        }
+        try {
+            StockSeries stockData = dbHelper.loadStockSeries(TABLE_PREFIX + symbol);
+            if (stockData.size() == 0) {
+                throw new IllegalStateException("Table " + TABLE_PREFIX + symbol + " is empty");
+            }
+            double[][] rows = featureEngine.features(stockData);
+            double[][] inputs = new double[Math.min(rows.length, maxDays)][];
+            int first = rows.length - inputs.length;
+            for (int i = 0; i < inputs.length; i++) {
+                double[] row = rows[first + i];
+                if (normalizer != null) {
+                    normalizer.normalize(row, row);
+                }
+                inputs[i] = Arrays.copyOfRange(row, 0, featureEngine.inputSize());
+            }
+            pending.complete(new Features(inputs, stockData.date(stockData.size() - 1), System.currentTimeMillis()));
+        } catch (Exception e) {
+            features.remove(symbol, pending);
+            pending.completeExceptionally(e);
+        }
+        return pending.get();
+    }
+
+    private boolean expired(CompletableFuture<Features> loaded) {
+        return loaded.isDone() && !loaded.isCompletedExceptionally()
+                && System.currentTimeMillis() - loaded.join().loadedAt > featureTtlMillis;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    // A symbol's latest model inputs (feature rows without the target column) and the bar they end on
+    private static final class Features {
+        final double[][] inputs;
+        final int lastDate;
+        final long loadedAt;
+
+        Features(double[][] inputs, int lastDate, long loadedAt) {
+            this.inputs = inputs;
+            this.lastDate = lastDate;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\":\"" + message.replace("\"", "'") + "\"}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
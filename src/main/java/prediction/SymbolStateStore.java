@@ -0,0 +1,313 @@
+package prediction;
+
+import lstm.LSTMPredictor;
+import lstm.LSTMState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Last hidden/cell state per symbol after its most recent processed bar, so a new day's bar costs one
+// forward step instead of a replay of the whole history. Holds at most `capacity` symbols in memory and
+// evicts the least recently used; with a spill directory, evicted and flushed entries are written to disk
+// and read back on the next miss. Entries belong to one model version and are dropped when it changes.
+//
+// The store's monitor only guards the in-memory map and counters; spill files are read and written outside it,
+// under a per-symbol lock, so one symbol's disk I/O never stalls lookups for the others. An evicted entry
+// stays readable from `spilling` until its file is written.
+public class SymbolStateStore {
+    private static final Logger LOGGER = Logger.getLogger(SymbolStateStore.class.getName());
+    private static final int SPILL_MAGIC = 0x5453534C;
+
+    private final int capacity;
+    private final Path spillDir;
+    private final LinkedHashMap<String, Entry> entries;
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+    // Evicted entries whose spill file is not written yet
+    private final ConcurrentHashMap<String, Entry> spilling = new ConcurrentHashMap<>();
+    // Filled by removeEldestEntry under the monitor, written out by the caller after it lets go
+    private final List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+    private long modelVersion;
+    private boolean versionKnown;
+
+    private long hits;
+    private long spillHits;
+    private long misses;
+    private long evictions;
+    private long replayedSteps;
+    private long incrementalSteps;
+
+    // spillDir may be null to keep the store purely in memory
+    public SymbolStateStore(int capacity, String spillDir) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.spillDir = spillDir == null ? null : Paths.get(spillDir);
+        if (this.spillDir != null) {
+            Files.createDirectories(this.spillDir);
+        }
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= SymbolStateStore.this.capacity) {
+                    return false;
+                }
+                evictions++;
+                if (spillDir != null) {
+                    spilling.put(eldest.getKey(), eldest.getValue());
+                    evicted.add(new AbstractMap.SimpleImmutableEntry<>(eldest.getKey(), eldest.getValue()));
+                }
+                return true;
+            }
+        };
+    }
+
+    // Runs the rows of features newer than the symbol's stored state through the model and returns the output
+    // after the last row. Rows are ordered by bar time in column 0, and the first inputSize columns feed the model.
+    // Without a usable stored state (unknown symbol, other model, or history rewritten) the whole history is replayed.
+    public double advance(LSTMPredictor model, String symbol, double[][] features) {
+        if (features.length == 0) {
+            throw new IllegalArgumentException("No bars for " + symbol);
+        }
+        long version = model.getVersion();
+        Entry entry = get(version, symbol);
+        LSTMState state = model.newState();
+        int from = 0;
+        if (entry != null) {
+            int last = indexOfBar(features, entry.lastBarTime);
+            if (last == features.length - 1) {
+                return entry.lastOutput;
+            }
+            if (last >= 0) {
+                state.restore(entry.hiddenState, entry.cellState);
+                from = last + 1;
+            }
+        }
+
+        double[] input = new double[model.getInputSize()];
+        double output = 0;
+        for (int i = from; i < features.length; i++) {
+            System.arraycopy(features[i], 0, input, 0, input.length);
+            output = model.predict(input, state)[0];
+        }
+        long lastBarTime = (long) features[features.length - 1][0];
+        spill(put(symbol, new Entry(state.getHiddenState().clone(), state.getCellState().clone(), version, lastBarTime, output),
+                from, features.length - from));
+        return output;
+    }
+
+    // Writes every in-memory entry to the spill directory so the next run can start from it
+    public void flush() {
+        List<Map.Entry<String, Entry>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(drainEvicted());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                snapshot.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+            }
+        }
+        spill(snapshot);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Memory first, then an entry still being spilled, then the spill file, read outside the store's monitor
+    private Entry get(long version, String symbol) {
+        synchronized (this) {
+            if (!versionKnown || version != modelVersion) {
+                // A different model makes every stored state meaningless; spill files are checked on read
+                entries.clear();
+                spilling.clear();
+                modelVersion = version;
+                versionKnown = true;
+            }
+            Entry entry = entries.get(symbol);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+        }
+        Entry entry = spilling.get(symbol);
+        if (entry == null || entry.modelVersion != version) {
+            synchronized (lockFor(symbol)) {
+                entry = readSpill(symbol, version);
+            }
+        }
+        List<Map.Entry<String, Entry>> pushedOut;
+        synchronized (this) {
+            if (entry == null || version != modelVersion) {
+                misses++;
+                return null;
+            }
+            spillHits++;
+            // Another thread may have stored a newer state meanwhile; keep that one
+            Entry current = entries.putIfAbsent(symbol, entry);
+            if (current != null) {
+                entry = current;
+            }
+            pushedOut = drainEvicted();
+        }
+        spill(pushedOut);
+        return entry;
+    }
+
+    // Stores the entry and returns whatever it pushed out, for the caller to spill outside the monitor
+    private synchronized List<Map.Entry<String, Entry>> put(String symbol, Entry entry, int from, int steps) {
+        if (from == 0) {
+            replayedSteps += steps;
+        } else {
+            incrementalSteps += steps;
+        }
+        if (entry.modelVersion == modelVersion) {
+            entries.put(symbol, entry);
+        }
+        return drainEvicted();
+    }
+
+    private synchronized List<Map.Entry<String, Entry>> drainEvicted() {
+        if (evicted.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Map.Entry<String, Entry>> out = new ArrayList<>(evicted);
+        evicted.clear();
+        return out;
+    }
+
+    private Object lockFor(String symbol) {
+        return locks.computeIfAbsent(symbol, k -> new Object());
+    }
+
+    // Binary search on the bar times in column 0; -1 if the bar is not present
+    private static int indexOfBar(double[][] features, long barTime) {
+        int lo = 0;
+        int hi = features.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long time = (long) features[mid][0];
+            if (time < barTime) {
+                lo = mid + 1;
+            } else if (time > barTime) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Path spillFile(String symbol) {
+        return spillDir.resolve(symbol + ".state");
+    }
+
+    private void spill(List<Map.Entry<String, Entry>> batch) {
+        for (Map.Entry<String, Entry> entry : batch) {
+            synchronized (lockFor(entry.getKey())) {
+                spill(entry.getKey(), entry.getValue());
+            }
+            spilling.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Best effort: a failed spill only costs a replay later. Callers hold the symbol's lock.
+    private void spill(String symbol, Entry entry) {
+        if (spillDir == null) {
+            return;
+        }
+        Path target = spillFile(symbol);
+        Path temp = spillDir.resolve(symbol + ".state.tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SPILL_MAGIC);
+                out.writeLong(entry.modelVersion);
+                out.writeLong(entry.lastBarTime);
+                out.writeDouble(entry.lastOutput);
+                out.writeInt(entry.hiddenState.length);
+                for (double v : entry.hiddenState) {
+                    out.writeDouble(v);
+                }
+                for (double v : entry.cellState) {
+                    out.writeDouble(v);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not spill state for " + symbol, e);
+        }
+    }
+
+    // Callers hold the symbol's lock
+    private Entry readSpill(String symbol, long version) {
+        if (spillDir == null) {
+            return null;
+        }
+        File file = spillFile(symbol).toFile();
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != SPILL_MAGIC || in.readLong() != version) {
+                // Written for another model; it can never be used again
+                Files.deleteIfExists(file.toPath());
+                return null;
+            }
+            long lastBarTime = in.readLong();
+            double lastOutput = in.readDouble();
+            int h = in.readInt();
+            double[] hidden = new double[h];
+            double[] cell = new double[h];
+            for (int i = 0; i < h; i++) {
+                hidden[i] = in.readDouble();
+            }
+            for (int i = 0; i < h; i++) {
+                cell[i] = in.readDouble();
+            }
+            return new Entry(hidden, cell, version, lastBarTime, lastOutput);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable state file for " + symbol, e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("State store: %d cached, hits %d, disk hits %d, misses %d, evictions %d, steps %d incremental / %d replayed",
+                entries.size(), hits, spillHits, misses, evictions, incrementalSteps, replayedSteps);
+    }
+
+    private static final class Entry {
+        final double[] hiddenState;
+        final double[] cellState;
+        final long modelVersion;
+        // Bar time (column 0) of the last row folded into this state
+        final long lastBarTime;
+        final double lastOutput;
+
+        Entry(double[] hiddenState, double[] cellState, long modelVersion, long lastBarTime, double lastOutput) {
+            this.hiddenState = hiddenState;
+            this.cellState = cellState;
+            this.modelVersion = modelVersion;
+            this.lastBarTime = lastBarTime;
+            this.lastOutput = lastOutput;
+        }
+    }
+}
@@ -17,6 +17,43 @@ public class DataPreprocessor {
         return extendedData;
     }
 
+    // Model rows {date millis, close, high, low, open, volume, turnover, indicators...} built in one pass from
+    // the series columns and column-major indicators; the same layout as addFeatures on rows
+    public static double[][] addFeatures(StockSeries series, double[][] indicatorColumns) {
+        double[][] extendedData = new double[series.size()][];
+        addFeatures(series, indicatorColumns, extendedData, 0);
+        return extendedData;
+    }
+
+    // Same rows written into out[at, at + series.size()), so several series can fill one training set
+    public static void addFeatures(StockSeries series, double[][] indicatorColumns, double[][] out, int at) {
+        int numRows = series.size();
+        int base = StockSeries.Column.values().length + 1;
+        int offset = series.offset();
+        double[] close = series.array(StockSeries.Column.CLOSE);
+        double[] high = series.array(StockSeries.Column.HIGH);
+        double[] low = series.array(StockSeries.Column.LOW);
+        double[] open = series.array(StockSeries.Column.OPEN);
+        double[] volume = series.array(StockSeries.Column.VOLUME);
+        double[] turnover = series.array(StockSeries.Column.TURNOVER);
+
+        for (int i = 0; i < numRows; i++) {
+            double[] row = new double[base + indicatorColumns.length];
+            out[at + i] = row;
+            int k = offset + i;
+            row[0] = series.dateMillis(i);
+            row[1] = close[k];
+            row[2] = high[k];
+            row[3] = low[k];
+            row[4] = open[k];
+            row[5] = volume[k];
+            row[6] = turnover[k];
+            for (int c = 0; c < indicatorColumns.length; c++) {
+                row[base + c] = indicatorColumns[c][i];
+            }
+        }
+    }
+
     // Splits data into training and testing sets based on the trainSplitRatio
     public static double[][][] preprocessData(double[][] data, double trainSplitRatio) {
         int trainSize = (int) (data.length * trainSplitRatio);
@@ -29,38 +66,8 @@ public class DataPreprocessor {
         return new double[][][]{trainData, testData};
     }
 
-    // Normalizes data to have zero mean and unit variance
+    // Normalizes data to have zero mean and unit variance; Normalizer keeps the statistics for reuse
     public static double[][] normalize(double[][] data) {
-        int numRows = data.length;
-        int numCols = data[0].length;
-        double[][] normalizedData = new double[numRows][numCols];
-
-        for (int j = 0; j < numCols; j++) {
-            double mean = 0;
-            double std = 0;
-
-            // Calculate mean
-            for (int i = 0; i < numRows; i++) {
-                mean += data[i][j];
-            }
-            mean /= numRows;
-
-            // Calculate standard deviation
-            for (int i = 0; i < numRows; i++) {
-                std += Math.pow(data[i][j] - mean, 2);
-            }
-            std = Math.sqrt(std / numRows);
-
-            // Normalize the data
-            for (int i = 0; i < numRows; i++) {
-                if (std == 0) {
-                    normalizedData[i][j] = 0;  // Prevent division by zero
-                } else {
-                    normalizedData[i][j] = (data[i][j] - mean) / std;
-                }
-            }
-        }
-
-        return normalizedData;
+        return Normalizer.fit(data).normalize(data);
     }
 }
@@ -0,0 +1,321 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Computes a declared set of indicator features, e.g. "sma20, ema12, ema26, macd, rsi14, atr14".
+// parse() plans the spec as a DAG of intermediates keyed by what they compute, so anything two features
+// share (the EMAs under MACD, the SMA under Bollinger, one stochastic pass for %K and %D) is computed once
+// per series. The plan is immutable and can be used from any number of threads.
+//
+// The spec lists the input features only. Every model row ends with the same target, the 20-bar EMA of the
+// close the models forecast, however many features the spec lists, so the target never shifts onto a
+// feature. A model's spec is saved next to it (pathFor) and every prediction path builds rows from that.
+//
+// Feature names, N being a period:
+//   smaN, emaN, rsiN, atrN            the usual indicators
+//   macd, macdsignal, macdhist        MACD(12, 26, 9) line, signal and histogram
+//   bbupperN, bblowerN                Bollinger Bands at 2 standard deviations
+//   stochkN, stochdN                  stochastic %K and its N-bar mean %D
+public final class FeatureEngine {
+    // The indicator inputs of models saved before their spec was; with the target their rows are
+    // {..., sma20, ema20}
+    public static final String MODEL_SPEC = "sma20";
+    // Period of the EMA every row ends with
+    public static final int TARGET_PERIOD = 20;
+
+    private static final Pattern FEATURE = Pattern.compile("([a-z]+)(\\d*)");
+    private static final int MACD_SHORT = 12;
+    private static final int MACD_LONG = 26;
+    private static final int MACD_SIGNAL = 9;
+    private static final double BOLLINGER_WIDTH = 2;
+
+    private final List<Node> plan;
+    private final List<String> names;
+    private final Node[] featureNodes;
+    private final int[] featureOutputs;
+    private final Node targetNode;
+
+    private FeatureEngine(List<Node> plan, List<String> names, Node[] featureNodes, int[] featureOutputs, Node targetNode) {
+        this.plan = plan;
+        this.names = names;
+        this.featureNodes = featureNodes;
+        this.featureOutputs = featureOutputs;
+        this.targetNode = targetNode;
+    }
+
+    public static FeatureEngine parse(String spec) {
+        Planner planner = new Planner();
+        List<String> names = new ArrayList<>();
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        for (String token : spec.split(",")) {
+            String name = token.trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty()) {
+                continue;
+            }
+            Matcher m = FEATURE.matcher(name);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Unknown feature: " + name);
+            }
+            String kind = m.group(1);
+            int period = m.group(2).isEmpty() ? 0 : Integer.parseInt(m.group(2));
+            boolean periodic = !kind.startsWith("macd");
+            if (periodic == (period == 0)) {
+                throw new IllegalArgumentException(periodic ? "Feature needs a positive period: " + name
+                        : "MACD takes no period: " + name);
+            }
+            switch (kind) {
+                case "sma":
+                    nodes.add(planner.sma(period));
+                    outputs.add(0);
+                    break;
+                case "ema":
+                    nodes.add(planner.ema(period));
+                    outputs.add(0);
+                    break;
+                case "rsi":
+                    nodes.add(planner.rsi(period));
+                    outputs.add(0);
+                    break;
+                case "atr":
+                    nodes.add(planner.atr(period));
+                    outputs.add(0);
+                    break;
+                case "macd":
+                case "macdsignal":
+                case "macdhist":
+                    nodes.add(planner.macd());
+                    outputs.add(kind.equals("macd") ? 0 : kind.equals("macdsignal") ? 1 : 2);
+                    break;
+                case "bbupper":
+                case "bblower":
+                    nodes.add(planner.bollinger(period));
+                    outputs.add(kind.equals("bbupper") ? 1 : 2);
+                    break;
+                case "stochk":
+                case "stochd":
+                    nodes.add(planner.stochastic(period));
+                    outputs.add(kind.equals("stochk") ? 0 : 1);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown feature: " + name);
+            }
+            names.add(name);
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("No features in spec: " + spec);
+        }
+        int[] outputIndexes = new int[outputs.size()];
+        for (int i = 0; i < outputIndexes.length; i++) {
+            outputIndexes[i] = outputs.get(i);
+        }
+        Node target = planner.ema(TARGET_PERIOD);
+        return new FeatureEngine(new ArrayList<>(planner.nodes.values()), Collections.unmodifiableList(names),
+                nodes.toArray(new Node[0]), outputIndexes, target);
+    }
+
+    // Input features in the spec
+    public int size() {
+        return names.size();
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    // The spec in canonical form; parse(getSpec()) plans the same features
+    public String getSpec() {
+        return String.join(", ", names);
+    }
+
+    // Model inputs per row: date, the price columns and the spec's features
+    public int inputSize() {
+        return StockSeries.Column.values().length + 1 + names.size();
+    }
+
+    // Row column of the target, right after the inputs
+    public int targetColumn() {
+        return inputSize();
+    }
+
+    // Spec file saved next to a model
+    public static String pathFor(String modelPath) {
+        return modelPath + ".features";
+    }
+
+    // One line of text: the spec
+    public void save(String filePath) throws IOException {
+        Path target = Paths.get(filePath);
+        Path temp = Paths.get(filePath + ".tmp");
+        Files.write(temp, (getSpec() + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The spec saved at filePath, or null when there is none
+    public static FeatureEngine load(String filePath) throws IOException {
+        if (!new File(filePath).exists()) {
+            return null;
+        }
+        String spec = new String(Files.readAllBytes(Paths.get(filePath)), StandardCharsets.UTF_8).trim();
+        try {
+            return parse(spec);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(filePath + " holds an invalid feature spec", e);
+        }
+    }
+
+    // The spec saved with the model at modelPath, or MODEL_SPEC for a model saved before specs were
+    public static FeatureEngine forModel(String modelPath) throws IOException {
+        FeatureEngine saved = load(pathFor(modelPath));
+        return saved != null ? saved : parse(MODEL_SPEC);
+    }
+
+    // Column-major features of the series, one column per requested name in spec order, then the target.
+    // Columns may share arrays with each other (a feature named twice), so treat them as read-only.
+    public double[][] columns(StockSeries series) {
+        int n = series.size();
+        double[][][] values = new double[plan.size()][][];
+        for (Node node : plan) {
+            double[][] inputs = new double[node.dependencies.length][];
+            for (int d = 0; d < inputs.length; d++) {
+                Node dependency = node.dependencies[d];
+                inputs[d] = values[dependency.index][0];
+            }
+            values[node.index] = node.source != null
+                    ? new double[][]{column(series, node.source)}
+                    : node.compute.apply(new Inputs(inputs, n));
+        }
+        double[][] columns = new double[featureNodes.length + 1][];
+        for (int f = 0; f < featureNodes.length; f++) {
+            columns[f] = values[featureNodes[f].index][featureOutputs[f]];
+        }
+        columns[featureNodes.length] = values[targetNode.index][0];
+        return columns;
+    }
+
+    // Model rows {date millis, close, high, low, open, volume, turnover, features..., target}, filled in one pass
+    public double[][] features(StockSeries series) {
+        return DataPreprocessor.addFeatures(series, columns(series));
+    }
+
+    // A zero-based array of exactly size() values; shared when the series already covers its whole array
+    private static double[] column(StockSeries series, StockSeries.Column name) {
+        double[] array = series.array(name);
+        if (series.offset() == 0 && array.length == series.size()) {
+            return array;
+        }
+        double[] copy = new double[series.size()];
+        System.arraycopy(array, series.offset(), copy, 0, copy.length);
+        return copy;
+    }
+
+    private static final class Inputs {
+        final double[][] columns;
+        final int length;
+
+        Inputs(double[][] columns, int length) {
+            this.columns = columns;
+            this.length = length;
+        }
+
+        double[] get(int i) {
+            return columns[i];
+        }
+    }
+
+    private static final class Node {
+        final int index;
+        final StockSeries.Column source;
+        final Node[] dependencies;
+        // One or more output columns of the same length as the series
+        final Function<Inputs, double[][]> compute;
+
+        Node(int index, StockSeries.Column source, Node[] dependencies, Function<Inputs, double[][]> compute) {
+            this.index = index;
+            this.source = source;
+            this.dependencies = dependencies;
+            this.compute = compute;
+        }
+    }
+
+    // Builds nodes dependencies first, so insertion order is already a topological order
+    private static final class Planner {
+        final Map<String, Node> nodes = new LinkedHashMap<>();
+
+        Node node(String key, Function<Inputs, double[][]> compute, Node... dependencies) {
+            Node existing = nodes.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            Node node = new Node(nodes.size(), null, dependencies, compute);
+            nodes.put(key, node);
+            return node;
+        }
+
+        Node source(StockSeries.Column column) {
+            Node existing = nodes.get(column.name());
+            if (existing != null) {
+                return existing;
+            }
+            Node node = new Node(nodes.size(), column, new Node[0], null);
+            nodes.put(column.name(), node);
+            return node;
+        }
+
+        Node sma(int period) {
+            return node("sma:" + period, in -> new double[][]{TechnicalIndicators.calculateSMA(in.get(0), period)},
+                    source(StockSeries.Column.CLOSE));
+        }
+
+        Node ema(int period) {
+            return node("ema:" + period, in -> new double[][]{in.length == 0 ? new double[0]
+                    : TechnicalIndicators.calculateEMA(in.get(0), period)}, source(StockSeries.Column.CLOSE));
+        }
+
+        // RSI and ATR seed from their first period bars; shorter series get zeros
+        Node rsi(int period) {
+            return node("rsi:" + period, in -> new double[][]{in.length <= period ? new double[in.length]
+                    : TechnicalIndicators.calculateRSI(in.get(0), period)}, source(StockSeries.Column.CLOSE));
+        }
+
+        Node atr(int period) {
+            return node("atr:" + period, in -> new double[][]{in.length <= period ? new double[in.length]
+                            : TechnicalIndicators.calculateATR(in.get(0), in.get(1), in.get(2), period)},
+                    source(StockSeries.Column.HIGH), source(StockSeries.Column.LOW), source(StockSeries.Column.CLOSE));
+        }
+
+        Node macd() {
+            return node("macd:" + MACD_SHORT + ":" + MACD_LONG + ":" + MACD_SIGNAL,
+                    in -> in.length == 0 ? new double[3][0]
+                            : TechnicalIndicators.calculateMACD(in.get(0), in.get(1), MACD_SIGNAL),
+                    ema(MACD_SHORT), ema(MACD_LONG));
+        }
+
+        Node bollinger(int period) {
+            return node("bollinger:" + period,
+                    in -> TechnicalIndicators.calculateBollingerBands(in.get(0), in.get(1), period, BOLLINGER_WIDTH),
+                    source(StockSeries.Column.CLOSE), sma(period));
+        }
+
+        Node stochastic(int period) {
+            return node("stochastic:" + period,
+                    in -> TechnicalIndicators.calculateStochasticOscillator(in.get(0), in.get(1), in.get(2), period),
+                    source(StockSeries.Column.CLOSE), source(StockSeries.Column.HIGH), source(StockSeries.Column.LOW));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package util;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Builds the training set symbol by symbol on a fork/join pool. Indicators never run across the boundary
+// between two symbols, and every symbol writes its feature rows straight into its own range of the one
+// result array, so nothing is concatenated or copied afterwards.
+public final class FeaturePipeline {
+    // Below this many bars a range of symbols is not split further
+    private static final int MIN_SPLIT_ROWS = 4096;
+
+    private FeaturePipeline() {
+    }
+
+    // Feature rows of every series, in list order
+    public static double[][] build(List<StockSeries> series, FeatureEngine engine, ForkJoinPool pool) {
+        int[] start = starts(series);
+        double[][] rows = new double[start[series.size()]][];
+        pool.invoke(new Task(series, engine, start, rows, 0, series.size()));
+        return rows;
+    }
+
+    // Row of build()'s result at which each series starts, then the total row count
+    public static int[] starts(List<StockSeries> series) {
+        int[] start = new int[series.size() + 1];
+        for (int i = 0; i < series.size(); i++) {
+            start[i + 1] = start[i] + series.get(i).size();
+        }
+        return start;
+    }
+
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<StockSeries> series;
+        private final FeatureEngine engine;
+        private final int[] start;
+        private final double[][] rows;
+        private final int from;
+        private final int to;
+
+        Task(List<StockSeries> series, FeatureEngine engine, int[] start, double[][] rows, int from, int to) {
+            this.series = series;
+            this.engine = engine;
+            this.start = start;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && start[to] - start[from] > MIN_SPLIT_ROWS) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Task(series, engine, start, rows, from, mid), new Task(series, engine, start, rows, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                StockSeries symbol = series.get(i);
+                if (symbol.size() > 0) {
+                    DataPreprocessor.addFeatures(symbol, engine.columns(symbol), rows, start[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Feature rows spilled to local disk in chunk files of up to chunkRows rows, so a dataset larger than the
+// heap can still be trained on. Rows are written once through a memory mapping of the chunk being filled,
+// and read() maps a chunk back and copies it into a caller-owned buffer, so the heap holds one chunk at a
+// time however many rows were spilled. Where a new symbol's rows begin inside a chunk is kept on the heap,
+// one int per symbol, so training windows can stay within one symbol. The files are scratch data: close() deletes them, and a new spill
+// deletes whatever an earlier run of the same name left behind.
+//
+// Chunk file layout, little-endian: 16-byte header (magic, version, rows, columns), then the rows as
+// row-major doubles.
+public final class FeatureSpill implements AutoCloseable {
+    private static final int MAGIC = 0x4C495053;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private final Path directory;
+    private final String name;
+    private final int columns;
+    private final int chunkRows;
+    private final List<Path> chunks = new ArrayList<>();
+    private final List<Integer> chunkSizes = new ArrayList<>();
+    private final List<int[]> chunkSymbolStarts = new ArrayList<>();
+    private final List<Integer> symbolStarts = new ArrayList<>();
+    private long rows;
+
+    // Chunk being written, or null
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private DoubleBuffer writer;
+    private int written;
+    private boolean finished;
+
+    public FeatureSpill(String directory, String name, int columns, int chunkRows) throws IOException {
+        if (columns < 1 || chunkRows < 1) {
+            throw new IllegalArgumentException("Columns and chunk rows must be positive: " + columns + ", " + chunkRows);
+        }
+        this.directory = Paths.get(directory);
+        this.name = name;
+        this.columns = columns;
+        this.chunkRows = chunkRows;
+        Files.createDirectories(this.directory);
+        deleteFiles();
+    }
+
+    public void append(double[] row) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Spill " + name + " is finished");
+        }
+        if (row.length != columns) {
+            throw new IllegalArgumentException("Row has " + row.length + " columns; the spill holds " + columns);
+        }
+        if (writer == null) {
+            startChunk();
+        }
+        writer.put(row);
+        rows++;
+        if (++written == chunkRows) {
+            endChunk();
+        }
+    }
+
+    // The next row appended starts a new symbol. A chunk's first row needs no mark: no window crosses chunks.
+    public void startSymbol() {
+        if (finished) {
+            throw new IllegalStateException("Spill " + name + " is finished");
+        }
+        if (writer != null && (symbolStarts.isEmpty() || symbolStarts.get(symbolStarts.size() - 1) != written)) {
+            symbolStarts.add(written);
+        }
+    }
+
+    // Rows [from, to) of rows
+    public void append(double[][] rows, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            append(rows[i]);
+        }
+    }
+
+    // Writes out the last, partly filled chunk; no rows can be appended afterwards
+    public void finish() throws IOException {
+        if (writer != null) {
+            endChunk();
+        }
+        finished = true;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    // Rows in chunk c; every chunk but the last holds chunkRows
+    public int getChunkSize(int chunk) {
+        return chunkSizes.get(chunk);
+    }
+
+    // Rows within chunk c at which a symbol starts, past its first row, ascending
+    public int[] getSymbolStarts(int chunk) {
+        return chunkSymbolStarts.get(chunk).clone();
+    }
+
+    // A buffer read() can fill with any chunk
+    public double[][] newBuffer() {
+        return new double[chunkRows][columns];
+    }
+
+    // Chunk indexes in file order; shuffle them for a new epoch order
+    public int[] chunkOrder() {
+        int[] order = new int[chunks.size()];
+        for (int c = 0; c < order.length; c++) {
+            order[c] = c;
+        }
+        return order;
+    }
+
+    // Copies chunk c into the first rows of buffer and returns how many rows it holds
+    public int read(int chunk, double[][] buffer) throws IOException {
+        if (!finished) {
+            throw new IllegalStateException("Spill " + name + " is still being written");
+        }
+        int count = chunkSizes.get(chunk);
+        try (FileChannel in = FileChannel.open(chunks.get(chunk), StandardOpenOption.READ)) {
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(8) != count || map.getInt(12) != columns) {
+                throw new IOException(chunks.get(chunk) + " is not chunk " + chunk + " of spill " + name);
+            }
+            map.position(HEADER_BYTES);
+            DoubleBuffer reader = map.asDoubleBuffer();
+            for (int i = 0; i < count; i++) {
+                reader.get(buffer[i], 0, columns);
+            }
+        }
+        return count;
+    }
+
+    // Deletes the chunk files
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            mapped = null;
+            writer = null;
+        }
+        deleteFiles();
+    }
+
+    private void startChunk() throws IOException {
+        Path file = directory.resolve(name + "-" + chunks.size() + ".spill");
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 8L * chunkRows * columns);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        mapped.position(HEADER_BYTES);
+        writer = mapped.asDoubleBuffer();
+        written = 0;
+        chunks.add(file);
+    }
+
+    // Completes the header; a partly filled last chunk keeps its full size on disk, its header says how much is used
+    private void endChunk() throws IOException {
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, written);
+        mapped.putInt(12, columns);
+        channel.close();
+        chunkSizes.add(written);
+        int[] starts = new int[symbolStarts.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = symbolStarts.get(i);
+        }
+        chunkSymbolStarts.add(starts);
+        symbolStarts.clear();
+        channel = null;
+        mapped = null;
+        writer = null;
+    }
+
+    private void deleteFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*.spill")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
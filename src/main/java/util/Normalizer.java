@@ -0,0 +1,227 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Per-column mean and population standard deviation, scaled as (x - mean) / std with 0 for a constant column.
+// Statistics are accumulated with Welford's update in one row-major pass; fit() splits the rows over a
+// fork/join pool and merges the partial results (Chan et al.), and add() folds in further rows later.
+// The fitted statistics can be saved next to a model so inference scales its inputs the same way.
+public final class Normalizer {
+    private static final int MAGIC = 0x4D524F4E;
+    private static final int VERSION = 1;
+    // Below this many rows a range is reduced on the current thread
+    private static final int MIN_SPLIT_ROWS = 8192;
+
+    private long count;
+    private final double[] mean;
+    private final double[] m2;
+
+    public Normalizer(int columns) {
+        this(0, new double[columns], new double[columns]);
+    }
+
+    private Normalizer(long count, double[] mean, double[] m2) {
+        this.count = count;
+        this.mean = mean;
+        this.m2 = m2;
+    }
+
+    public static Normalizer fit(double[][] data) {
+        return fit(data, ForkJoinPool.commonPool());
+    }
+
+    public static Normalizer fit(double[][] data, ForkJoinPool pool) {
+        return fit(data, 0, data.length, pool);
+    }
+
+    // Statistics of rows [from, to) only, e.g. the training part of a dataset that is scaled as a whole
+    public static Normalizer fit(double[][] data, int from, int to) {
+        return fit(data, from, to, ForkJoinPool.commonPool());
+    }
+
+    public static Normalizer fit(double[][] data, int from, int to, ForkJoinPool pool) {
+        if (from >= to) {
+            throw new IllegalArgumentException("Cannot fit a normalizer to no rows");
+        }
+        return pool.invoke(new FitTask(data, data[from].length, from, to));
+    }
+
+    // Folds one more row into the statistics
+    public void add(double[] row) {
+        count++;
+        for (int j = 0; j < mean.length; j++) {
+            double delta = row[j] - mean[j];
+            mean[j] += delta / count;
+            m2[j] += delta * (row[j] - mean[j]);
+        }
+    }
+
+    // Folds another normalizer's rows into this one, as if they had been added here
+    public void merge(Normalizer other) {
+        if (other.mean.length != mean.length) {
+            throw new IllegalArgumentException("Column counts differ: " + mean.length + " and " + other.mean.length);
+        }
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        for (int j = 0; j < mean.length; j++) {
+            double delta = other.mean[j] - mean[j];
+            mean[j] += delta * other.count / total;
+            m2[j] += other.m2[j] + delta * delta * ((double) count * other.count / total);
+        }
+        count = total;
+    }
+
+    public int getColumns() {
+        return mean.length;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean(int column) {
+        return mean[column];
+    }
+
+    public double getStdDev(int column) {
+        return count == 0 ? 0 : Math.sqrt(m2[column] / count);
+    }
+
+    // Scales data row by row, overwriting it
+    public void normalizeInPlace(double[][] data) {
+        normalizeInPlace(data, 0, data.length);
+    }
+
+    // Scales rows [from, to) only, e.g. the filled part of a reused buffer
+    public void normalizeInPlace(double[][] data, int from, int to) {
+        double[] scale = scales();
+        for (int i = from; i < to; i++) {
+            scale(data[i], data[i], scale);
+        }
+    }
+
+    // Scaled copy of data; data is not modified
+    public double[][] normalize(double[][] data) {
+        double[] scale = scales();
+        double[][] normalized = new double[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            normalized[i] = new double[mean.length];
+            scale(data[i], normalized[i], scale);
+        }
+        return normalized;
+    }
+
+    // Scales the first getColumns() values of row into out; row and out may be the same array
+    public void normalize(double[] row, double[] out) {
+        scale(row, out, scales());
+    }
+
+    // Inverse of the scaling for one value of the given column
+    public double denormalize(double value, int column) {
+        return value * getStdDev(column) + mean[column];
+    }
+
+    // 1 / std per column, 0 where the column is constant so it scales to 0
+    private double[] scales() {
+        double[] scale = new double[mean.length];
+        for (int j = 0; j < scale.length; j++) {
+            double std = getStdDev(j);
+            scale[j] = std == 0 ? 0 : 1 / std;
+        }
+        return scale;
+    }
+
+    private void scale(double[] row, double[] out, double[] scale) {
+        for (int j = 0; j < mean.length; j++) {
+            out[j] = (row[j] - mean[j]) * scale[j];
+        }
+    }
+
+    // Statistics file for a model: the model path with ".norm" appended
+    public static String pathFor(String modelPath) {
+        return modelPath + ".norm";
+    }
+
+    public void save(String filePath) throws IOException {
+        Path target = Paths.get(filePath);
+        Path temp = Paths.get(filePath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mean.length);
+            out.writeLong(count);
+            for (int j = 0; j < mean.length; j++) {
+                out.writeDouble(mean[j]);
+                out.writeDouble(m2[j]);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns null if there are no saved statistics at filePath
+    public static Normalizer load(String filePath) throws IOException {
+        if (!new File(filePath).exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(filePath))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(filePath + " is not a normalizer file");
+            }
+            int columns = in.readInt();
+            long count = in.readLong();
+            double[] mean = new double[columns];
+            double[] m2 = new double[columns];
+            for (int j = 0; j < columns; j++) {
+                mean[j] = in.readDouble();
+                m2[j] = in.readDouble();
+            }
+            return new Normalizer(count, mean, m2);
+        }
+    }
+
+    private static final class FitTask extends RecursiveTask<Normalizer> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] data;
+        private final int columns;
+        private final int from;
+        private final int to;
+
+        FitTask(double[][] data, int columns, int from, int to) {
+            this.data = data;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Normalizer compute() {
+            if (to - from > MIN_SPLIT_ROWS) {
+                int mid = (from + to) >>> 1;
+                FitTask right = new FitTask(data, columns, mid, to);
+                right.fork();
+                Normalizer left = new FitTask(data, columns, from, mid).compute();
+                left.merge(right.join());
+                return left;
+            }
+            Normalizer partial = new Normalizer(columns);
+            for (int i = from; i < to; i++) {
+                partial.add(data[i]);
+            }
+            return partial;
+        }
+    }
+}
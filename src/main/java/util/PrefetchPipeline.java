@@ -0,0 +1,293 @@
+package util;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Loads symbols and computes their feature rows in the background while the caller consumes them, so the
+// database, the indicator code and training overlap instead of running one after another:
+//
+//   loader threads --[series queue]--> feature threads --[chunk queue]--> take() on the caller's thread
+//
+// take() hands out one chunk (one symbol's feature rows) at a time in list order. At most `window` chunks
+// are loaded, computed or waiting at any time, so memory stays bounded however many symbols there are; a
+// window of 2 or more means the next chunk is normally ready before the caller is done with the current one.
+// Every stage counts its busy time, the time it starved waiting for input and the time it was held back by
+// the window, and samples the depth of its input queue; report() prints them to show the bottleneck.
+public final class PrefetchPipeline implements AutoCloseable {
+    public interface SeriesLoader {
+        StockSeries load(String name) throws SQLException;
+    }
+
+    // One symbol's feature rows; rows is empty for a symbol without data
+    public static final class Chunk {
+        private final int index;
+        private final String name;
+        private final double[][] rows;
+
+        Chunk(int index, String name, double[][] rows) {
+            this.index = index;
+            this.name = name;
+            this.rows = rows;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double[][] getRows() {
+            return rows;
+        }
+    }
+
+    private static final class Loaded {
+        final int index;
+        final StockSeries series;
+
+        Loaded(int index, StockSeries series) {
+            this.index = index;
+            this.series = series;
+        }
+    }
+
+    private static final Chunk END = new Chunk(-1, null, null);
+    private static final Loaded LOADED_END = new Loaded(-1, null);
+
+    private final List<String> names;
+    private final SeriesLoader loader;
+    private final FeatureEngine engine;
+    private final Semaphore window;
+    private final AtomicInteger nextName = new AtomicInteger();
+    private final BlockingQueue<Loaded> seriesQueue;
+    private final BlockingQueue<Chunk> chunkQueue;
+    // Chunks that finished ahead of their turn, only touched by the consumer
+    private final Map<Integer, Chunk> ready = new HashMap<>();
+    private final Thread[] loaderThreads;
+    private final Thread[] featureThreads;
+    private final AtomicInteger runningLoaders;
+    private final Stage loadStage = new Stage("load");
+    private final Stage featureStage = new Stage("features");
+    private final Stage consumerStage = new Stage("consumer");
+    private final long startNanos = System.nanoTime();
+    private volatile Throwable failure;
+    private int nextChunk;
+    private long lastTakeNanos = startNanos;
+
+    public PrefetchPipeline(List<String> names, SeriesLoader loader, int loaderThreads, FeatureEngine engine,
+                            int featureThreads, int window) {
+        if (loaderThreads < 1 || featureThreads < 1 || window < 1) {
+            throw new IllegalArgumentException("Thread counts and window must be positive");
+        }
+        this.names = names;
+        this.loader = loader;
+        this.engine = engine;
+        this.window = new Semaphore(window);
+        // Never full: the window admits at most `window` chunks, plus one END per thread
+        this.seriesQueue = new ArrayBlockingQueue<>(window + featureThreads);
+        this.chunkQueue = new ArrayBlockingQueue<>(window + 1);
+        this.runningLoaders = new AtomicInteger(loaderThreads);
+        this.loaderThreads = new Thread[loaderThreads];
+        this.featureThreads = new Thread[featureThreads];
+        for (int t = 0; t < loaderThreads; t++) {
+            this.loaderThreads[t] = start(this::runLoader, "prefetch-load-" + t);
+        }
+        for (int t = 0; t < featureThreads; t++) {
+            this.featureThreads[t] = start(this::runFeatures, "prefetch-features-" + t);
+        }
+    }
+
+    private static Thread start(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    // Next chunk in list order, blocking until it is ready; null after the last one. Throws
+    // IllegalStateException if loading or computing any chunk failed.
+    public Chunk take() throws InterruptedException {
+        long now = System.nanoTime();
+        consumerStage.busy(now - lastTakeNanos);
+        try {
+            if (nextChunk == names.size()) {
+                return null;
+            }
+            Chunk chunk = ready.remove(nextChunk);
+            while (chunk == null) {
+                consumerStage.sampleQueue(chunkQueue.size());
+                Chunk next = chunkQueue.take();
+                if (next == END) {
+                    throw new IllegalStateException("Prefetching stopped after " + nextChunk + " of " + names.size() + " symbols", failure);
+                }
+                if (next.index == nextChunk) {
+                    chunk = next;
+                } else {
+                    ready.put(next.index, next);
+                }
+            }
+            nextChunk++;
+            consumerStage.items.incrementAndGet();
+            // Its slot goes to the next symbol as soon as the caller has it
+            window.release();
+            return chunk;
+        } finally {
+            lastTakeNanos = System.nanoTime();
+            consumerStage.starved(lastTakeNanos - now);
+        }
+    }
+
+    private void runLoader() {
+        try {
+            while (failure == null) {
+                long waitStart = System.nanoTime();
+                window.acquire();
+                long loadStart = System.nanoTime();
+                loadStage.blocked(loadStart - waitStart);
+                int index = nextName.getAndIncrement();
+                if (index >= names.size() || failure != null) {
+                    window.release();
+                    break;
+                }
+                seriesQueue.put(new Loaded(index, loader.load(names.get(index))));
+                loadStage.busy(System.nanoTime() - loadStart);
+                loadStage.items.incrementAndGet();
+            }
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            // The last loader out tells every feature thread to stop
+            if (runningLoaders.decrementAndGet() == 0) {
+                for (int t = 0; t < featureThreads.length; t++) {
+                    putQuietly(seriesQueue, LOADED_END);
+                }
+            }
+        }
+    }
+
+    private void runFeatures() {
+        try {
+            while (true) {
+                long waitStart = System.nanoTime();
+                featureStage.sampleQueue(seriesQueue.size());
+                Loaded task = seriesQueue.take();
+                long computeStart = System.nanoTime();
+                featureStage.starved(computeStart - waitStart);
+                if (task == LOADED_END) {
+                    break;
+                }
+                StockSeries series = task.series;
+                double[][] rows = series.size() == 0 ? new double[0][] : engine.features(series);
+                long computed = System.nanoTime();
+                featureStage.busy(computed - computeStart);
+                featureStage.items.incrementAndGet();
+                chunkQueue.put(new Chunk(task.index, names.get(task.index), rows));
+                featureStage.blocked(System.nanoTime() - computed);
+            }
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        // Wake the consumer and any loader parked on the window
+        chunkQueue.offer(END);
+        window.release(loaderThreads.length);
+    }
+
+    private static void putQuietly(BlockingQueue<Loaded> queue, Loaded item) {
+        while (true) {
+            try {
+                queue.put(item);
+                return;
+            } catch (InterruptedException e) {
+                // Stopping threads must still get their END
+            }
+        }
+    }
+
+    // Stops the background threads; chunks not yet taken are dropped
+    @Override
+    public void close() {
+        if (failure == null) {
+            failure = new IllegalStateException("Prefetch pipeline closed");
+        }
+        window.release(loaderThreads.length);
+        for (Thread thread : loaderThreads) {
+            thread.interrupt();
+        }
+        for (Thread thread : featureThreads) {
+            thread.interrupt();
+        }
+    }
+
+    // Per stage: items, and busy / starved / blocked as a share of wall time summed over the stage's threads;
+    // the stage closest to 100% busy is the bottleneck
+    public String report() {
+        long wall = System.nanoTime() - startNanos;
+        return "Prefetch pipeline after " + wall / 1_000_000 + " ms:"
+                + "\n  " + loadStage.report(wall, loaderThreads.length)
+                + "\n  " + featureStage.report(wall, featureThreads.length)
+                + "\n  " + consumerStage.report(wall, 1);
+    }
+
+    @Override
+    public String toString() {
+        return report();
+    }
+
+    private static final class Stage {
+        final String name;
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong starvedNanos = new AtomicLong();
+        final AtomicLong blockedNanos = new AtomicLong();
+        final AtomicLong depthSum = new AtomicLong();
+        final AtomicLong depthSamples = new AtomicLong();
+        final AtomicLong maxDepth = new AtomicLong();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void busy(long nanos) {
+            busyNanos.addAndGet(nanos);
+        }
+
+        void starved(long nanos) {
+            starvedNanos.addAndGet(nanos);
+        }
+
+        void blocked(long nanos) {
+            blockedNanos.addAndGet(nanos);
+        }
+
+        void sampleQueue(int depth) {
+            depthSum.addAndGet(depth);
+            depthSamples.incrementAndGet();
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        String report(long wallNanos, int threads) {
+            double total = (double) wallNanos * threads;
+            long samples = depthSamples.get();
+            String queue = samples == 0 ? "" : String.format(" input queue avg=%.1f max=%d",
+                    (double) depthSum.get() / samples, maxDepth.get());
+            return String.format("%-9s threads=%d items=%d busy=%.0f%% starved=%.0f%% blocked=%.0f%%%s",
+                    name, threads, items.get(), 100 * busyNanos.get() / total, 100 * starvedNanos.get() / total,
+                    100 * blockedNanos.get() / total, queue);
+        }
+    }
+}
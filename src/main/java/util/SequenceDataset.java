@@ -0,0 +1,178 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Read-only view of feature rows for sequence training. Splits, lookback windows and feature/target
+// projections are all views over the same backing rows: nothing is copied, however many views exist.
+//
+// A view covers store rows [from, to). The store may hold several symbols back to back, starting at the
+// store rows in starts. A sample ends at a store row of the view and its window is the lookback rows up to
+// and including that row; windows may reach back before from (earlier history of the same symbol), never
+// across the start of a symbol, so the first lookback - 1 rows of every symbol end no sample. Samples are
+// numbered in store order. The sample's inputs are featureCount columns starting at featureOffset, and its
+// target is targetColumn of its last row.
+public final class SequenceDataset {
+    private static final int[] ONE_SYMBOL = new int[0];
+
+    private final double[][] rows;
+    private final int[] starts;
+    private final int from;
+    private final int to;
+    private final int lookback;
+    private final int featureOffset;
+    private final int featureCount;
+    private final int targetColumn;
+
+    // The view's samples as runs of consecutive store rows, one per symbol that has any: the store row of
+    // each run's first sample, and the number of samples before each run (runOffset[runs] is the size)
+    private final int[] runStart;
+    private final int[] runOffset;
+    private final int runs;
+
+    private SequenceDataset(double[][] rows, int[] starts, int from, int to, int lookback, int featureOffset,
+                            int featureCount, int targetColumn) {
+        this.rows = rows;
+        this.starts = starts;
+        this.from = from;
+        this.to = to;
+        this.lookback = lookback;
+        this.featureOffset = featureOffset;
+        this.featureCount = featureCount;
+        this.targetColumn = targetColumn;
+
+        runStart = new int[starts.length + 1];
+        runOffset = new int[starts.length + 2];
+        int count = 0;
+        for (int j = 0; j <= starts.length; j++) {
+            int symbolStart = j == 0 ? 0 : starts[j - 1];
+            int symbolEnd = j == starts.length ? rows.length : starts[j];
+            int first = Math.max(from, symbolStart + lookback - 1);
+            int end = Math.min(to, symbolEnd);
+            if (end > first) {
+                runStart[count] = first;
+                runOffset[count + 1] = runOffset[count] + end - first;
+                count++;
+            }
+        }
+        runs = count;
+    }
+
+    // Every row as one sample of one step, inputs in columns [0, featureCount)
+    public static SequenceDataset of(double[][] rows, int featureCount, int targetColumn) {
+        return new SequenceDataset(rows, ONE_SYMBOL, 0, rows.length, 1, 0, featureCount, targetColumn);
+    }
+
+    // Rows of several symbols back to back, symbol i starting at store row starts[i]; no window crosses from
+    // one symbol into the next
+    public static SequenceDataset of(double[][] rows, int[] starts, int featureCount, int targetColumn) {
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] < 0 || starts[i] > rows.length || (i > 0 && starts[i] < starts[i - 1])) {
+                throw new IllegalArgumentException("Symbol starts must be ascending store rows: " + Arrays.toString(starts));
+            }
+        }
+        return new SequenceDataset(rows, starts.clone(), 0, rows.length, 1, 0, featureCount, targetColumn);
+    }
+
+    // {train, test}: the first trainRatio of this view's rows and the rest, as preprocessData splits
+    public SequenceDataset[] split(double trainRatio) {
+        int cut = from + (int) ((to - from) * trainRatio);
+        return new SequenceDataset[]{
+                new SequenceDataset(rows, starts, from, cut, lookback, featureOffset, featureCount, targetColumn),
+                new SequenceDataset(rows, starts, cut, to, lookback, featureOffset, featureCount, targetColumn)};
+    }
+
+    // Rows [fromRow, toRow) of this view, counted from the view's first row
+    public SequenceDataset range(int fromRow, int toRow) {
+        if (fromRow < 0 || toRow > to - from || fromRow > toRow) {
+            throw new IndexOutOfBoundsException("Range [" + fromRow + ", " + toRow + ") of a view of " + (to - from) + " rows");
+        }
+        return new SequenceDataset(rows, starts, from + fromRow, from + toRow, lookback, featureOffset, featureCount, targetColumn);
+    }
+
+    public SequenceDataset withLookback(int steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("Lookback must be positive: " + steps);
+        }
+        return new SequenceDataset(rows, starts, from, to, steps, featureOffset, featureCount, targetColumn);
+    }
+
+    public SequenceDataset project(int featureOffset, int featureCount, int targetColumn) {
+        return new SequenceDataset(rows, starts, from, to, lookback, featureOffset, featureCount, targetColumn);
+    }
+
+    public int size() {
+        return runOffset[runs];
+    }
+
+    // Store row of sample k's last step
+    public int storeIndex(int sample) {
+        if (sample < 0 || sample >= size()) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + size());
+        }
+        if (runs == 1) {
+            return runStart[0] + sample;
+        }
+        int run = Arrays.binarySearch(runOffset, 0, runs, sample);
+        if (run < 0) {
+            run = -run - 2;
+        }
+        return runStart[run] + sample - runOffset[run];
+    }
+
+    // Backing row of step t (0 = oldest) of sample k's window; read inputs at getFeatureOffset()
+    public double[] row(int sample, int step) {
+        return rows[storeIndex(sample) - lookback + 1 + step];
+    }
+
+    // Backing row of sample k's last step
+    public double[] lastRow(int sample) {
+        return rows[storeIndex(sample)];
+    }
+
+    public double target(int sample) {
+        return rows[storeIndex(sample)][targetColumn];
+    }
+
+    // The shared backing rows; index them with storeIndex or order()
+    public double[][] getRows() {
+        return rows;
+    }
+
+    public int getLookback() {
+        return lookback;
+    }
+
+    public int getFeatureOffset() {
+        return featureOffset;
+    }
+
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    public int getTargetColumn() {
+        return targetColumn;
+    }
+
+    // Store index of every sample's last row, in sample order; shuffle it in place for a new epoch order
+    public int[] order() {
+        int[] order = new int[size()];
+        for (int run = 0; run < runs; run++) {
+            for (int k = runOffset[run]; k < runOffset[run + 1]; k++) {
+                order[k] = runStart[run] + k - runOffset[run];
+            }
+        }
+        return order;
+    }
+
+    // Fisher-Yates on primitive indexes
+    public static void shuffle(int[] order, Random random) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package util;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+
+// Daily bars of one or more stock tables as named primitive columns (struct of arrays).
+// Dates are epoch days. A series is a window [offset, offset + size) over its backing arrays, so slice()
+// shares them instead of copying; the arrays are never written after construction.
+public final class StockSeries {
+    public enum Column {
+        CLOSE, HIGH, LOW, OPEN, VOLUME, TURNOVER
+    }
+
+    private final int[] date;
+    private final double[][] columns;
+    private final int offset;
+    private final int size;
+
+    // Takes ownership of the arrays; only [0, size) of each is part of the series
+    public StockSeries(int[] date, double[] close, double[] high, double[] low, double[] open, double[] volume,
+                       double[] turnover, int size) {
+        this(date, new double[][]{close, high, low, open, volume, turnover}, 0, size);
+    }
+
+    private StockSeries(int[] date, double[][] columns, int offset, int size) {
+        this.date = date;
+        this.columns = columns;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Epoch day of bar i
+    public int date(int i) {
+        return date[offset + i];
+    }
+
+    // Start of bar i's day in the JVM's zone, as java.sql.Date.getTime() reports a DATE column
+    public long dateMillis(int i) {
+        return LocalDate.ofEpochDay(date(i)).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public double get(Column column, int i) {
+        return columns[column.ordinal()][offset + i];
+    }
+
+    public double close(int i) {
+        return columns[Column.CLOSE.ordinal()][offset + i];
+    }
+
+    // Backing array of a column; this series covers [offset(), offset() + size()) of it
+    public double[] array(Column column) {
+        return columns[column.ordinal()];
+    }
+
+    public int[] dateArray() {
+        return date;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    // Bars [from, to) of this series, sharing its arrays
+    public StockSeries slice(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Slice [" + from + ", " + to + ") of a series of " + size);
+        }
+        return new StockSeries(date, columns, offset + from, to - from);
+    }
+
+    // Index of the bar on the given epoch day, or -1; dates must be ascending
+    public int indexOf(int epochDay) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int day = date(mid);
+            if (day < epochDay) {
+                lo = mid + 1;
+            } else if (day > epochDay) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // All parts back to back in one new series
+    public static StockSeries concat(List<StockSeries> parts) {
+        int total = 0;
+        for (StockSeries part : parts) {
+            total += part.size;
+        }
+        int[] date = new int[total];
+        double[][] columns = new double[Column.values().length][total];
+        int pos = 0;
+        for (StockSeries part : parts) {
+            System.arraycopy(part.date, part.offset, date, pos, part.size);
+            for (int c = 0; c < columns.length; c++) {
+                System.arraycopy(part.columns[c], part.offset, columns[c], pos, part.size);
+            }
+            pos += part.size;
+        }
+        return new StockSeries(date, columns, 0, total);
+    }
+
+    // Row-major {date millis, close, high, low, open, volume, turnover}, for code that still works on rows
+    public double[][] toRows() {
+        double[][] rows = new double[size][];
+        for (int i = 0; i < size; i++) {
+            int k = offset + i;
+            rows[i] = new double[]{dateMillis(i), columns[0][k], columns[1][k], columns[2][k], columns[3][k], columns[4][k], columns[5][k]};
+        }
+        return rows;
+    }
+}
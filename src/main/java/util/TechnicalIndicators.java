@@ -1,29 +1,80 @@
 package util;
 
+// Every indicator is a single pass over its input. Window sums are kept running instead of recomputed, so
+// the cost does not grow with the period.
 public class TechnicalIndicators {
 
     public static double[] calculateSMA(double[] prices, int period) {
-        double[] sma = new double[prices.length];
-        for (int i = 0; i < prices.length; i++) {
+        return calculateSMA(prices, 0, prices.length, period);
+    }
+
+    // SMA of prices[offset, offset + length), e.g. a StockSeries column, without copying it out
+    public static double[] calculateSMA(double[] prices, int offset, int length, int period) {
+        double[] sma = new double[length];
+        rollingMean(prices, offset, length, period, sma, 0);
+        return sma;
+    }
+
+    // out[outOffset + i] = mean of values[offset + i - period + 1 .. offset + i] for every i in [period - 1, length).
+    // The running sum is compensated (Neumaier), so adding and subtracting does not drift away from a fresh
+    // sum over long histories. Non-finite values are counted apart: a window holding one is NaN or infinite as
+    // a plain sum would be, and the windows after it are exact again.
+    private static void rollingMean(double[] values, int offset, int length, int period, double[] out, int outOffset) {
+        double sum = 0;
+        double compensation = 0;
+        int nan = 0;
+        int positiveInfinity = 0;
+        int negativeInfinity = 0;
+        for (int i = 0; i < length; i++) {
+            for (int side = 0; side < 2; side++) {
+                int index = side == 0 ? i : i - period;
+                if (index < 0) {
+                    continue;
+                }
+                double value = values[offset + index];
+                int sign = side == 0 ? 1 : -1;
+                if (Double.isNaN(value)) {
+                    nan += sign;
+                } else if (value == Double.POSITIVE_INFINITY) {
+                    positiveInfinity += sign;
+                } else if (value == Double.NEGATIVE_INFINITY) {
+                    negativeInfinity += sign;
+                } else {
+                    double v = sign * value;
+                    double t = sum + v;
+                    if (Math.abs(sum) >= Math.abs(v)) {
+                        compensation += (sum - t) + v;
+                    } else {
+                        compensation += (v - t) + sum;
+                    }
+                    sum = t;
+                }
+            }
             if (i < period - 1) {
-                sma[i] = 0;
+                continue;
+            }
+            if (nan > 0 || (positiveInfinity > 0 && negativeInfinity > 0)) {
+                out[outOffset + i] = Double.NaN;
+            } else if (positiveInfinity > 0) {
+                out[outOffset + i] = Double.POSITIVE_INFINITY;
+            } else if (negativeInfinity > 0) {
+                out[outOffset + i] = Double.NEGATIVE_INFINITY;
             } else {
-                double sum = 0;
-                for (int j = 0; j < period; j++) {
-                    sum += prices[i - j];
-                }
-                sma[i] = sum / period;
+                out[outOffset + i] = (sum + compensation) / period;
             }
         }
-        return sma;
     }
 
     public static double[] calculateEMA(double[] prices, int period) {
-        double[] ema = new double[prices.length];
+        return calculateEMA(prices, 0, prices.length, period);
+    }
+
+    public static double[] calculateEMA(double[] prices, int offset, int length, int period) {
+        double[] ema = new double[length];
         double multiplier = 2.0 / (period + 1);
-        ema[0] = prices[0];
-        for (int i = 1; i < prices.length; i++) {
-            ema[i] = ((prices[i] - ema[i - 1]) * multiplier) + ema[i - 1];
+        ema[0] = prices[offset];
+        for (int i = 1; i < length; i++) {
+            ema[i] = ((prices[offset + i] - ema[i - 1]) * multiplier) + ema[i - 1];
         }
         return ema;
     }
@@ -66,37 +117,87 @@ public class TechnicalIndicators {
     }
 
     public static double[][] calculateMACD(double[] prices, int shortPeriod, int longPeriod, int signalPeriod) {
-        double[] emaShort = calculateEMA(prices, shortPeriod);
-        double[] emaLong = calculateEMA(prices, longPeriod);
-        double[] macd = new double[prices.length];
-        for (int i = 0; i < prices.length; i++) {
+        return calculateMACD(calculateEMA(prices, shortPeriod), calculateEMA(prices, longPeriod), signalPeriod);
+    }
+
+    // {macd, signal, histogram} from EMAs the caller already has
+    public static double[][] calculateMACD(double[] emaShort, double[] emaLong, int signalPeriod) {
+        double[] macd = new double[emaShort.length];
+        for (int i = 0; i < macd.length; i++) {
             macd[i] = emaShort[i] - emaLong[i];
         }
         double[] signal = calculateEMA(macd, signalPeriod);
-        double[] histogram = new double[prices.length];
-        for (int i = 0; i < prices.length; i++) {
+        double[] histogram = new double[macd.length];
+        for (int i = 0; i < macd.length; i++) {
             histogram[i] = macd[i] - signal[i];
         }
         return new double[][]{macd, signal, histogram};
     }
 
     public static double[][] calculateBollingerBands(double[] prices, int period, double stdDevMultiplier) {
-        double[] sma = calculateSMA(prices, period);
+        return calculateBollingerBands(prices, calculateSMA(prices, period), period, stdDevMultiplier);
+    }
+
+    // {sma, upper, lower} around an SMA of the same period the caller already has. The population standard
+    // deviation over the sliding window is updated Welford-style as one price enters and one leaves. The window
+    // is re-seeded from scratch every period bars, which bounds the rounding the updates accumulate at one extra
+    // pass over the data, and whenever it is clean again after a non-finite price.
+    public static double[][] calculateBollingerBands(double[] prices, double[] sma, int period, double stdDevMultiplier) {
         double[] upperBand = new double[prices.length];
         double[] lowerBand = new double[prices.length];
 
-        for (int i = period - 1; i < prices.length; i++) {
-            double sum = 0;
-            for (int j = 0; j < period; j++) {
-                sum += Math.pow(prices[i - j] - sma[i], 2);
+        double mean = 0;
+        double m2 = 0;
+        int nonFinite = 0;
+        boolean reseed = true;
+        int updates = 0;
+        for (int i = 0; i < prices.length; i++) {
+            if (!isFinite(prices[i])) {
+                nonFinite++;
+            }
+            if (i >= period && !isFinite(prices[i - period])) {
+                nonFinite--;
+            }
+            if (i < period - 1) {
+                continue;
+            }
+
+            double stdDev;
+            if (nonFinite > 0) {
+                reseed = true;
+                stdDev = Double.NaN;
+            } else {
+                if (reseed || updates == period) {
+                    mean = 0;
+                    m2 = 0;
+                    for (int j = 0; j < period; j++) {
+                        double delta = prices[i - period + 1 + j] - mean;
+                        mean += delta / (j + 1);
+                        m2 += delta * (prices[i - period + 1 + j] - mean);
+                    }
+                    reseed = false;
+                    updates = 0;
+                } else {
+                    updates++;
+                    double in = prices[i];
+                    double out = prices[i - period];
+                    double newMean = mean + (in - out) / period;
+                    m2 += (in - out) * (in - newMean + out - mean);
+                    mean = newMean;
+                }
+                // Cancellation can leave a tiny negative residue for a flat window
+                stdDev = Math.sqrt(Math.max(m2, 0) / period);
             }
-            double stdDev = Math.sqrt(sum / period);
             upperBand[i] = sma[i] + (stdDevMultiplier * stdDev);
             lowerBand[i] = sma[i] - (stdDevMultiplier * stdDev);
         }
         return new double[][]{sma, upperBand, lowerBand};
     }
 
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
     public static double[] calculateATR(double[] high, double[] low, double[] close, int period) {
         double[] atr = new double[close.length];
         double[] tr = new double[close.length];
@@ -120,34 +221,61 @@ public class TechnicalIndicators {
         return atr;
     }
 
+    // Highest high and lowest low come from monotonic deques of indices: each bar is pushed and popped at
+    // most once, and the front is always the extreme of the current window. %D is a rolling mean of %K.
     public static double[][] calculateStochasticOscillator(double[] close, double[] high, double[] low, int period) {
         double[] k = new double[close.length];
         double[] d = new double[close.length];
 
-        for (int i = period - 1; i < close.length; i++) {
-            double highestHigh = Double.MIN_VALUE;
-            double lowestLow = Double.MAX_VALUE;
-            for (int j = 0; j < period; j++) {
-                if (high[i - j] > highestHigh) {
-                    highestHigh = high[i - j];
+        int[] maxQueue = new int[close.length];
+        int[] minQueue = new int[close.length];
+        int maxHead = 0;
+        int maxTail = 0;
+        int minHead = 0;
+        int minTail = 0;
+        for (int i = 0; i < close.length; i++) {
+            // NaN never wins a comparison, so it is left out as the window scan left it out
+            if (!Double.isNaN(high[i])) {
+                while (maxTail > maxHead && high[maxQueue[maxTail - 1]] <= high[i]) {
+                    maxTail--;
                 }
-                if (low[i - j] < lowestLow) {
-                    lowestLow = low[i - j];
+                maxQueue[maxTail++] = i;
+            }
+            if (!Double.isNaN(low[i])) {
+                while (minTail > minHead && low[minQueue[minTail - 1]] >= low[i]) {
+                    minTail--;
                 }
+                minQueue[minTail++] = i;
+            }
+            if (maxTail > maxHead && maxQueue[maxHead] <= i - period) {
+                maxHead++;
+            }
+            if (minTail > minHead && minQueue[minHead] <= i - period) {
+                minHead++;
             }
+            if (i < period - 1) {
+                continue;
+            }
+            // The window scan started from these bounds; keep them so results stay the same
+            double highestHigh = maxTail > maxHead ? Math.max(high[maxQueue[maxHead]], Double.MIN_VALUE) : Double.MIN_VALUE;
+            double lowestLow = minTail > minHead ? Math.min(low[minQueue[minHead]], Double.MAX_VALUE) : Double.MAX_VALUE;
             k[i] = ((close[i] - lowestLow) / (highestHigh - lowestLow)) * 100;
         }
 
-        for (int i = period * 2 - 2; i < close.length; i++) {
-            double sum = 0;
-            for (int j = 0; j < period; j++) {
-                sum += k[i - j];
-            }
-            d[i] = sum / period;
+        if (close.length >= period) {
+            rollingMean(k, period - 1, close.length - (period - 1), period, d, period - 1);
         }
         return new double[][]{k, d};
     }
 
+    // Column-major {sma, ema} of the close column, read straight from the series
+    public static double[][] calculate(StockSeries series, int smaPeriod, int emaPeriod) {
+        double[] close = series.array(StockSeries.Column.CLOSE);
+        double[] sma = calculateSMA(close, series.offset(), series.size(), smaPeriod);
+        double[] ema = calculateEMA(close, series.offset(), series.size(), emaPeriod);
+        return new double[][]{sma, ema};
+    }
+
     public static double[][] calculate(double[][] stockData, int smaPeriod, int emaPeriod) {
         int priceIndex = 1;
 
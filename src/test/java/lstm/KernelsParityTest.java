@@ -0,0 +1,159 @@
+package lstm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+// The fast and vector kernels must stay within Kernels.PARITY_TOLERANCE of the scalar reference, including on
+// the inputs the random check in KernelSelection never produces: saturating |x|, denormals, infinities and
+// NaN. The vector cases are skipped when the JVM has no jdk.incubator.vector module (surefire adds it).
+@RunWith(Parameterized.class)
+public class KernelsParityTest {
+    private static final double[] EDGES = {
+            0.0, -0.0, Double.MIN_VALUE, -Double.MIN_VALUE, 1e-310, -1e-310, Double.MIN_NORMAL,
+            1e-8, -1e-8, 0.5, -0.5, 8.9, -8.9, 9.0, -9.0, 20.0, -20.0, 1e3, -1e3, 1e300, -1e300,
+            Double.MAX_VALUE, -Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN
+    };
+
+    private final Kernels candidate;
+    private final Kernels scalar = new ScalarKernels();
+
+    public KernelsParityTest(String name) {
+        candidate = name.equals("vector") ? KernelSelection.vectorKernels() : new FastKernels();
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> backends() {
+        return Arrays.asList(new Object[]{"fast"}, new Object[]{"vector"});
+    }
+
+    @Before
+    public void backendIsAvailable() {
+        assumeNotNull(candidate);
+    }
+
+    @Test
+    public void tanhMatchesOnEdgeInputs() {
+        double[] expected = EDGES.clone();
+        double[] actual = EDGES.clone();
+        scalar.tanh(expected, 0, expected.length);
+        candidate.tanh(actual, 0, actual.length);
+        for (int i = 0; i < EDGES.length; i++) {
+            assertClose("tanh(" + EDGES[i] + ")", expected[i], actual[i]);
+            assertClose("tanh(" + EDGES[i] + ")", scalar.tanh(EDGES[i]), candidate.tanh(EDGES[i]));
+        }
+    }
+
+    @Test
+    public void sigmoidMatchesOnEdgeInputs() {
+        double[] expected = EDGES.clone();
+        double[] actual = EDGES.clone();
+        scalar.sigmoid(expected, 0, expected.length);
+        candidate.sigmoid(actual, 0, actual.length);
+        for (int i = 0; i < EDGES.length; i++) {
+            assertClose("sigmoid(" + EDGES[i] + ")", expected[i], actual[i]);
+        }
+    }
+
+    @Test
+    public void activationsOnlyTouchTheirRange() {
+        double[] v = {5.0, 5.0, 5.0, 5.0};
+        candidate.sigmoid(v, 1, 3);
+        candidate.tanh(v, 2, 3);
+        assertEquals(5.0, v[0], 0.0);
+        assertEquals(5.0, v[3], 0.0);
+    }
+
+    @Test
+    public void activationsMatchOnADenseSweep() {
+        int n = 200_001;
+        double[] expected = new double[n];
+        for (int i = 0; i < n; i++) {
+            expected[i] = -25.0 + 50.0 * i / (n - 1);
+        }
+        double[] actual = expected.clone();
+        double[] expectedSigmoid = expected.clone();
+        double[] actualSigmoid = expected.clone();
+        scalar.tanh(expected, 0, n);
+        candidate.tanh(actual, 0, n);
+        scalar.sigmoid(expectedSigmoid, 0, n);
+        candidate.sigmoid(actualSigmoid, 0, n);
+        for (int i = 0; i < n; i++) {
+            assertClose("tanh sweep " + i, expected[i], actual[i]);
+            assertClose("sigmoid sweep " + i, expectedSigmoid[i], actualSigmoid[i]);
+        }
+    }
+
+    @Test
+    public void gemvMatchesOnEdgeInputs() {
+        // 7 rows covers the four-row blocks and the remainder; the stride leaves padding past n
+        int rows = 7;
+        int n = 5;
+        int stride = 8;
+        Random rand = new Random(7);
+        for (double edge : EDGES) {
+            double[] w = new double[rows * stride];
+            double[] bias = new double[rows];
+            for (int i = 0; i < w.length; i++) {
+                w[i] = rand.nextGaussian();
+            }
+            for (int r = 0; r < rows; r++) {
+                bias[r] = rand.nextGaussian();
+                w[r * stride + r % n] = edge;
+                // Padding must never be read
+                w[r * stride + n] = Double.NaN;
+            }
+            double[] x = new double[n + 3];
+            for (int j = 0; j < x.length; j++) {
+                x[j] = rand.nextGaussian();
+            }
+            x[1 + (int) (rand.nextDouble() * n)] = edge;
+            double[] expected = new double[rows + 2];
+            double[] actual = new double[rows + 2];
+            scalar.gemv(w, rows, stride, n, bias, x, 1, expected, 2);
+            candidate.gemv(w, rows, stride, n, bias, x, 1, actual, 2);
+            for (int r = 0; r < expected.length; r++) {
+                assertClose("gemv row " + r + " with " + edge, expected[r], actual[r]);
+            }
+        }
+    }
+
+    @Test
+    public void axpyMatchesOnEdgeInputs() {
+        for (double alpha : EDGES) {
+            for (double edge : EDGES) {
+                double[] x = {1.0, edge, -2.5, Double.MIN_VALUE, 3.0};
+                double[] expected = {edge, 0.25, -edge, 1e-310, 4.0, 9.0};
+                double[] actual = expected.clone();
+                scalar.axpy(alpha, x, 1, expected, 1, 4);
+                candidate.axpy(alpha, x, 1, actual, 1, 4);
+                for (int j = 0; j < expected.length; j++) {
+                    assertClose("axpy " + alpha + " * " + edge + " at " + j, expected[j], actual[j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void randomParityIsWithinTolerance() {
+        double error = KernelSelection.parityError(candidate, scalar);
+        assertTrue("parity error " + error, error <= Kernels.PARITY_TOLERANCE);
+    }
+
+    private static void assertClose(String what, double expected, double actual) {
+        if (Double.isNaN(expected) || Double.isInfinite(expected)) {
+            assertEquals(what, expected, actual, 0.0);
+            return;
+        }
+        double tolerance = Kernels.PARITY_TOLERANCE * Math.max(1.0, Math.abs(expected));
+        assertTrue(what + ": expected " + expected + " but was " + actual, Math.abs(expected - actual) <= tolerance);
+    }
+}
@@ -0,0 +1,58 @@
+package util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+// Lookback windows over several symbols stored back to back must never cross from one symbol into the next,
+// whatever view they are taken through
+public class SequenceDatasetTest {
+    // Row i holds i in both columns, so a row's value is its store index
+    private static double[][] rows(int count) {
+        double[][] rows = new double[count][];
+        for (int i = 0; i < count; i++) {
+            rows[i] = new double[]{i, i};
+        }
+        return rows;
+    }
+
+    @Test
+    public void oneSymbolKeepsEveryWindowAfterTheFirstLookbackRows() {
+        SequenceDataset windows = SequenceDataset.of(rows(10), 1, 1).range(2, 10).withLookback(4);
+        assertArrayEquals(new int[]{3, 4, 5, 6, 7, 8, 9}, windows.order());
+        assertEquals(0.0, windows.row(0, 0)[0], 0.0);
+    }
+
+    @Test
+    public void windowsStayWithinTheirSymbol() {
+        // Symbols [0, 5), [5, 6), [6, 12), [12, 20); the one-row symbol ends no window of 3
+        SequenceDataset windows = SequenceDataset.of(rows(20), new int[]{0, 5, 6, 12, 20}, 1, 1).withLookback(3);
+        int[] expected = {2, 3, 4, 8, 9, 10, 11, 14, 15, 16, 17, 18, 19};
+        assertArrayEquals(expected, windows.order());
+        assertEquals(expected.length, windows.size());
+        for (int k = 0; k < expected.length; k++) {
+            assertEquals(expected[k], windows.storeIndex(k));
+            assertSame(windows.getRows()[expected[k]], windows.lastRow(k));
+            assertEquals(expected[k], windows.target(k), 0.0);
+            for (int t = 0; t < 3; t++) {
+                assertEquals(expected[k] - 2 + t, windows.row(k, t)[0], 0.0);
+            }
+        }
+    }
+
+    // A view may reach back into earlier rows of its first symbol, but not into the symbol before it
+    @Test
+    public void splitsKeepTheBoundaries() {
+        SequenceDataset[] splits = SequenceDataset.of(rows(20), new int[]{5, 6, 12}, 1, 1).split(0.5);
+        assertArrayEquals(new int[]{10, 11, 14, 15, 16, 17, 18, 19}, splits[1].withLookback(3).order());
+        assertArrayEquals(new int[]{2, 3, 4, 8, 9}, splits[0].withLookback(3).order());
+        assertEquals(10, splits[0].size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void startsMustAscend() {
+        SequenceDataset.of(rows(10), new int[]{5, 3}, 1, 1);
+    }
+}
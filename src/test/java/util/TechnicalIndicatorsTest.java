@@ -0,0 +1,246 @@
+package util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+// The one-pass SMA, Bollinger Bands and stochastic oscillator against the window scans they replaced, kept
+// below as reference implementations, on random walks, series with NaN and infinities, and flat series
+public class TechnicalIndicatorsTest {
+    private static final int[] PERIODS = {1, 2, 5, 14, 20, 200};
+    private static final int LENGTH = 2000;
+
+    @Test
+    public void smaMatchesReferenceOnRandomWalks() {
+        Random rand = new Random(1);
+        for (int period : PERIODS) {
+            double[] prices = randomWalk(rand, LENGTH, 100.0);
+            assertClose("sma " + period, referenceSMA(prices, period), TechnicalIndicators.calculateSMA(prices, period), scale(prices));
+        }
+    }
+
+    @Test
+    public void smaOfASliceMatchesReference() {
+        double[] prices = randomWalk(new Random(2), LENGTH, 50.0);
+        double[] slice = Arrays.copyOfRange(prices, 300, 1300);
+        assertClose("sma slice", referenceSMA(slice, 20), TechnicalIndicators.calculateSMA(prices, 300, 1000, 20), scale(prices));
+    }
+
+    // A running sum must not drift over a long history of large values with small changes
+    @Test
+    public void smaDoesNotDriftOverLongHistories() {
+        double[] prices = randomWalk(new Random(3), 200_000, 1e6);
+        double[] expected = referenceSMA(prices, 50);
+        double[] actual = TechnicalIndicators.calculateSMA(prices, 50);
+        for (int i = prices.length - 1000; i < prices.length; i++) {
+            assertEquals("sma at " + i, expected[i], actual[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void bollingerMatchesReferenceOnRandomWalks() {
+        Random rand = new Random(4);
+        for (int period : PERIODS) {
+            double[] prices = randomWalk(rand, LENGTH, 100.0);
+            double[][] expected = referenceBollinger(prices, period, 2.0);
+            double[][] actual = TechnicalIndicators.calculateBollingerBands(prices, period, 2.0);
+            for (int band = 0; band < 3; band++) {
+                assertClose("bollinger " + period + " band " + band, expected[band], actual[band], scale(prices));
+            }
+        }
+    }
+
+    @Test
+    public void stochasticMatchesReferenceOnRandomWalks() {
+        Random rand = new Random(5);
+        for (int period : PERIODS) {
+            double[] close = randomWalk(rand, LENGTH, 100.0);
+            double[] high = new double[LENGTH];
+            double[] low = new double[LENGTH];
+            for (int i = 0; i < LENGTH; i++) {
+                high[i] = close[i] + rand.nextDouble();
+                low[i] = close[i] - rand.nextDouble();
+            }
+            double[][] expected = referenceStochastic(close, high, low, period);
+            double[][] actual = TechnicalIndicators.calculateStochasticOscillator(close, high, low, period);
+            assertClose("%K " + period, expected[0], actual[0], 100.0);
+            assertClose("%D " + period, expected[1], actual[1], 100.0);
+        }
+    }
+
+    // Non-finite prices poison exactly the windows that hold them, as the window scans did, and the windows
+    // after them are exact again
+    @Test
+    public void nonFiniteValuesMatchReference() {
+        Random rand = new Random(6);
+        double[] specials = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int period : new int[]{1, 3, 20}) {
+            for (int trial = 0; trial < 20; trial++) {
+                double[] close = randomWalk(rand, 500, 100.0);
+                double[] high = close.clone();
+                double[] low = close.clone();
+                for (int i = 0; i < close.length; i++) {
+                    high[i] += 0.5;
+                    low[i] -= 0.5;
+                }
+                for (int k = 0; k < 6; k++) {
+                    double special = specials[rand.nextInt(specials.length)];
+                    int at = rand.nextInt(close.length);
+                    switch (rand.nextInt(3)) {
+                        case 0:
+                            close[at] = special;
+                            break;
+                        case 1:
+                            high[at] = special;
+                            break;
+                        default:
+                            low[at] = special;
+                            break;
+                    }
+                }
+                String what = "period " + period + " trial " + trial;
+                assertClose("sma " + what, referenceSMA(close, period), TechnicalIndicators.calculateSMA(close, period), 100.0);
+                double[][] expectedBands = referenceBollinger(close, period, 2.0);
+                double[][] actualBands = TechnicalIndicators.calculateBollingerBands(close, period, 2.0);
+                for (int band = 0; band < 3; band++) {
+                    assertClose("bollinger " + band + " " + what, expectedBands[band], actualBands[band], 100.0);
+                }
+                double[][] expectedStochastic = referenceStochastic(close, high, low, period);
+                double[][] actualStochastic = TechnicalIndicators.calculateStochasticOscillator(close, high, low, period);
+                assertClose("%K " + what, expectedStochastic[0], actualStochastic[0], 100.0);
+                assertClose("%D " + what, expectedStochastic[1], actualStochastic[1], 100.0);
+            }
+        }
+    }
+
+    @Test
+    public void flatSeriesHasZeroWidthBands() {
+        double[] prices = new double[300];
+        Arrays.fill(prices, 0.1);
+        double[][] bands = TechnicalIndicators.calculateBollingerBands(prices, 20, 2.0);
+        for (int i = 19; i < prices.length; i++) {
+            assertEquals("sma at " + i, 0.1, bands[0][i], 1e-15);
+            assertEquals("upper at " + i, bands[0][i], bands[1][i], 0.0);
+            assertEquals("lower at " + i, bands[0][i], bands[2][i], 0.0);
+        }
+        assertClose("flat sma", referenceSMA(prices, 20), bands[0], 1.0);
+    }
+
+    // A flat window has highest high == lowest low, so %K is 0 / 0 there, as it always was
+    @Test
+    public void flatSeriesStochasticMatchesReference() {
+        double[] flat = new double[100];
+        Arrays.fill(flat, 42.0);
+        double[][] expected = referenceStochastic(flat, flat, flat, 14);
+        double[][] actual = TechnicalIndicators.calculateStochasticOscillator(flat, flat, flat, 14);
+        assertClose("%K", expected[0], actual[0], 100.0);
+        assertClose("%D", expected[1], actual[1], 100.0);
+        assertTrue(Double.isNaN(actual[0][50]));
+    }
+
+    @Test
+    public void seriesShorterThanThePeriod() {
+        double[] prices = {1.0, 2.0, 3.0};
+        assertClose("sma", referenceSMA(prices, 5), TechnicalIndicators.calculateSMA(prices, 5), 1.0);
+        double[][] expected = referenceStochastic(prices, prices, prices, 5);
+        double[][] actual = TechnicalIndicators.calculateStochasticOscillator(prices, prices, prices, 5);
+        assertClose("%K", expected[0], actual[0], 1.0);
+        assertClose("%D", expected[1], actual[1], 1.0);
+    }
+
+    private static double[] randomWalk(Random rand, int length, double start) {
+        double[] prices = new double[length];
+        double price = start;
+        for (int i = 0; i < length; i++) {
+            price += rand.nextGaussian() * start * 0.01;
+            prices[i] = price;
+        }
+        return prices;
+    }
+
+    private static double scale(double[] values) {
+        double max = 1.0;
+        for (double value : values) {
+            max = Math.max(max, Math.abs(value));
+        }
+        return max;
+    }
+
+    // Non-finite values must match exactly; finite ones within 1e-9 of the data's magnitude
+    private static void assertClose(String what, double[] expected, double[] actual, double scale) {
+        assertEquals(what + " length", expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (Double.isNaN(expected[i]) || Double.isInfinite(expected[i])) {
+                assertEquals(what + " at " + i, expected[i], actual[i], 0.0);
+            } else {
+                assertEquals(what + " at " + i, expected[i], actual[i], 1e-9 * scale);
+            }
+        }
+    }
+
+    // The O(n * period) window scans the one-pass versions replaced
+
+    private static double[] referenceSMA(double[] prices, int period) {
+        double[] sma = new double[prices.length];
+        for (int i = 0; i < prices.length; i++) {
+            if (i < period - 1) {
+                sma[i] = 0;
+            } else {
+                double sum = 0;
+                for (int j = 0; j < period; j++) {
+                    sum += prices[i - j];
+                }
+                sma[i] = sum / period;
+            }
+        }
+        return sma;
+    }
+
+    private static double[][] referenceBollinger(double[] prices, int period, double stdDevMultiplier) {
+        double[] sma = referenceSMA(prices, period);
+        double[] upperBand = new double[prices.length];
+        double[] lowerBand = new double[prices.length];
+
+        for (int i = period - 1; i < prices.length; i++) {
+            double sum = 0;
+            for (int j = 0; j < period; j++) {
+                sum += Math.pow(prices[i - j] - sma[i], 2);
+            }
+            double stdDev = Math.sqrt(sum / period);
+            upperBand[i] = sma[i] + (stdDevMultiplier * stdDev);
+            lowerBand[i] = sma[i] - (stdDevMultiplier * stdDev);
+        }
+        return new double[][]{sma, upperBand, lowerBand};
+    }
+
+    private static double[][] referenceStochastic(double[] close, double[] high, double[] low, int period) {
+        double[] k = new double[close.length];
+        double[] d = new double[close.length];
+
+        for (int i = period - 1; i < close.length; i++) {
+            double highestHigh = Double.MIN_VALUE;
+            double lowestLow = Double.MAX_VALUE;
+            for (int j = 0; j < period; j++) {
+                if (high[i - j] > highestHigh) {
+                    highestHigh = high[i - j];
+                }
+                if (low[i - j] < lowestLow) {
+                    lowestLow = low[i - j];
+                }
+            }
+            k[i] = ((close[i] - lowestLow) / (highestHigh - lowestLow)) * 100;
+        }
+
+        for (int i = period * 2 - 2; i < close.length; i++) {
+            double sum = 0;
+            for (int j = 0; j < period; j++) {
+                sum += k[i - j];
+            }
+            d[i] = sum / period;
+        }
+        return new double[][]{k, d};
+    }
+}